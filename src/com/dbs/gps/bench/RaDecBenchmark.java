@@ -0,0 +1,525 @@
+package com.dbs.gps.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+
+import org.jfree.chart.axis.NumberAxis;
+
+import com.dbs.gps.data.RaDec;
+import com.dbs.gps.data.RaDecLoader;
+import com.dbs.gps.data.RaDecQuery;
+import com.dbs.gps.data.RaDecTable;
+import com.dbs.gps.gui.RaDecDataset;
+
+/**
+ * Benchmarks the load, query & plot preparation paths at several table sizes,
+ * each table made by repeating a seed file end to end in time. Each path is
+ * run both on the original List of RaDec & on the RaDecTable, & plot
+ * preparation both as the original chain plotPoints ran & through the
+ * RaDecDataset it uses now, for every ID & for a few IDs, over the middle
+ * tenth of the table & over all of it. The table's queries are run again on
+ * a copy kept off the heap in direct buffers.
+ *
+ * <p>Each benchmark is warmed up, then timed for a number of runs, stopping
+ * early once a time budget is spent. Reported are the median, 90th percentile
+ * & least time, rows per second, bytes allocated per run by the benchmark
+ * thread, & collections & collection time during the timed runs. Worker
+ * threads, such as the RaDecLoader's, aren't counted in the allocations.
+ * Results are printed as a table & written as CSV, one line per benchmark &
+ * size, so runs can be compared.</p>
+ *
+ * <p>List benchmarks are skipped for tables too big to hold as RaDec objects
+ * in half the heap. 50M rows need a heap of around 8 GB for the table & its
+ * filtered copies.</p>
+ *
+ * <p>Usage: RaDecBenchmark [seed file] [sizes] [runs] [csv file]
+ * <br>w/ sizes a comma separated list of row counts, by default
+ * 1000,1000000,50000000.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecBenchmark {
+
+	/**
+	 * Rough bytes of heap a RaDec takes in a List, w/ its reference
+	 */
+	private static final long BYTES_PER_RADEC = 40;
+
+	/**
+	 * Most time to spend on the warm up & on the timed runs of a benchmark
+	 */
+	private static final long WARMUP_NANOS = 2000000000L;
+	private static final long MEASURE_NANOS = 10000000000L;
+
+	/**
+	 * Fewest timed runs of a benchmark, whatever the time budget
+	 */
+	private static final int MIN_RUNS = 3;
+
+	/**
+	 * Size of the image plot preparation decimates for
+	 */
+	private static final int PLOT_WIDTH = 800;
+	private static final int PLOT_HEIGHT = 600;
+
+	private static final String CSV_HEADER = "benchmark,rows,runs," +
+			"median_ms,p90_ms,min_ms,rows_per_s,alloc_bytes_per_op," +
+			"alloc_mb_per_s,gc_count,gc_ms";
+
+	/**
+	 * Results are added up into this, so no benchmark is optimized away
+	 */
+	private static volatile long sink = 0;
+
+	/**
+	 * Timed runs of each benchmark
+	 */
+	private final int runs;
+
+	/**
+	 * Written to as results come in, may be null
+	 */
+	private final PrintWriter csv;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * @param runs Most timed runs of each benchmark
+	 * @param csv Writer for the CSV results, may be null
+	 */
+	public RaDecBenchmark(int runs, Writer csv) {
+		this.runs = Math.max(MIN_RUNS, runs);
+		this.csv = csv == null ? null : new PrintWriter(csv, true);
+		if(this.csv != null) this.csv.println(CSV_HEADER);
+		System.out.printf("%-20s %11s %5s %10s %10s %10s %12s %14s %9s %6s %8s%n",
+				"benchmark", "rows", "runs", "median ms", "p90 ms", "min ms",
+				"rows/s", "alloc B/op", "alloc MB/s", "gcs", "gc ms");
+	}
+
+	/**
+	 * Makes a table of the given size by repeating the seed's rows, each
+	 * 	copy shifted past the end of the one before in time
+	 * @param seed Table to repeat
+	 * @param rows Number of rows to make
+	 * @return Table of the given number of rows
+	 */
+	public static RaDecTable scale(RaDecTable seed, int rows) {
+		int span = seed.getStopTime() - seed.getStartTime() + 1;
+		RaDecTable table = new RaDecTable(rows);
+		for(int i = 0; i < rows; i++) {
+			int row = i % seed.size();
+			table.add(
+					seed.getTime(row) + (i / seed.size()) * span,
+					seed.getId(row),
+					seed.getRightAscension(row),
+					seed.getDeclination(row));
+		}
+		return table;
+	}
+
+	/**
+	 * Writes a table as a RaDec text file
+	 * @param table Table to write
+	 * @param file File to write to
+	 * @throws IOException If the file can't be written
+	 */
+	public static void write(RaDecTable table, File file) throws IOException {
+		BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16);
+		try {
+			StringBuilder line = new StringBuilder(64);
+			for(int i = 0; i < table.size(); i++) {
+				line.setLength(0);
+				line.append(table.getTime(i)).append('\t')
+						.append(table.getId(i)).append('\t')
+						.append(table.getRightAscension(i)).append('\t')
+						.append(table.getDeclination(i)).append('\n');
+				out.append(line);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Runs every benchmark on a table of the given size
+	 * @param seed Table to make the table from
+	 * @param rows Number of rows in the table
+	 * @throws IOException If the table can't be written out to load
+	 */
+	public void run(RaDecTable seed, int rows) throws IOException {
+		final RaDecTable table = scale(seed, rows);
+		final File file = File.createTempFile("radec-" + rows + "-", ".txt");
+		file.deleteOnExit();
+		write(table, file);
+		final URL url = file.toURI().toURL();
+
+		final List<Integer> ids = new ArrayList<Integer>(RaDec.getIDs(table));
+		final Set<Integer> someIds = new TreeSet<Integer>(
+				ids.subList(0, Math.min(3, ids.size())));
+		final int start = table.getStartTime() +
+				(table.getStopTime() - table.getStartTime()) * 9 / 20;
+		final int stop = table.getStartTime() +
+				(table.getStopTime() - table.getStartTime()) * 11 / 20;
+		final int first = table.getStartTime();
+		final int last = table.getStopTime();
+
+		Map<String, Callable<Long>> benchmarks =
+				new LinkedHashMap<String, Callable<Long>>();
+
+		benchmarks.put("load.table", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.loadRaDec(url, new RaDecTable()).size();
+			}
+		});
+		benchmarks.put("load.parallel", new Callable<Long>() {
+			@Override
+			public Long call() throws IOException {
+				RaDecLoader loader = new RaDecLoader();
+				loader.setUseCache(false);
+				return (long)loader.load(
+						Collections.singletonList(file), new RaDecTable(), null)
+						.size();
+			}
+		});
+		benchmarks.put("getIDs.table", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.getIDs(table).size();
+			}
+		});
+		benchmarks.put("filterByRange.table", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.filterByRange(table, start, stop).size();
+			}
+		});
+		benchmarks.put("filterById.table", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.filterById(table, someIds).size();
+			}
+		});
+		benchmarks.put("groupByID.table", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.groupByID(table).size();
+			}
+		});
+		benchmarks.put("plot.dataset", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return plotDataset(table, start, stop, ids);
+			}
+		});
+		benchmarks.put("plot.dataset.few", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return plotDataset(table, start, stop, someIds);
+			}
+		});
+		benchmarks.put("plot.dataset.all", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return plotDataset(table, first, last, ids);
+			}
+		});
+		for(Map.Entry<String, Callable<Long>> entry : benchmarks.entrySet()) {
+			measure(entry.getKey(), rows, entry.getValue());
+		}
+
+		// the same queries over a copy of the table kept off the heap
+		final RaDecTable direct =
+				new RaDecTable(rows, RaDecTable.Storage.DIRECT);
+		direct.addAll(table);
+		benchmarks.clear();
+		benchmarks.put("filterByRange.direct", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.filterByRange(direct, start, stop).size();
+			}
+		});
+		benchmarks.put("filterById.direct", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.filterById(direct, someIds).size();
+			}
+		});
+		benchmarks.put("groupByID.direct", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.groupByID(direct).size();
+			}
+		});
+		benchmarks.put("plot.direct", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return plotDataset(direct, start, stop, ids);
+			}
+		});
+		for(Map.Entry<String, Callable<Long>> entry : benchmarks.entrySet()) {
+			measure(entry.getKey(), rows, entry.getValue());
+		}
+		direct.close();
+
+		if(rows * BYTES_PER_RADEC > Runtime.getRuntime().maxMemory() / 2) {
+			System.out.printf("%-20s %,11d skipped, too big for the heap%n",
+					"*.list", rows);
+			return;
+		}
+
+		final List<RaDec> list = RaDec.loadRaDec(url);
+		benchmarks.clear();
+		benchmarks.put("load.list", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.loadRaDec(url).size();
+			}
+		});
+		benchmarks.put("getIDs.list", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.getIDs(list).size();
+			}
+		});
+		benchmarks.put("filterByRange.list", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.filterByRange(list, start, stop).size();
+			}
+		});
+		benchmarks.put("filterById.list", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.filterById(list, someIds).size();
+			}
+		});
+		benchmarks.put("groupByID.list", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return (long)RaDec.groupByID(list).size();
+			}
+		});
+		benchmarks.put("plot.chain", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return plotChain(list, start, stop, ids);
+			}
+		});
+		benchmarks.put("plot.chain.few", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return plotChain(list, start, stop, someIds);
+			}
+		});
+		benchmarks.put("plot.chain.all", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return plotChain(list, first, last, ids);
+			}
+		});
+		for(Map.Entry<String, Callable<Long>> entry : benchmarks.entrySet()) {
+			measure(entry.getKey(), rows, entry.getValue());
+		}
+	}
+
+	/**
+	 * Prepares a plot the way plotPoints does now, through a new RaDecDataset
+	 * 	decimated for a chart of the window's bounds, reading every item
+	 * @return Number of items read
+	 */
+	private static long plotDataset(
+			RaDecTable table,
+			int start,
+			int stop,
+			Collection<Integer> ids) {
+
+		RaDecDataset dataset = new RaDecDataset(table);
+		dataset.setWindow(start, stop, ids);
+		double[] bounds = RaDecQuery.bounds(table, start, stop, ids);
+		NumberAxis domainAxis = new NumberAxis();
+		NumberAxis rangeAxis = new NumberAxis();
+		if(bounds != null) {
+			domainAxis.setRange(bounds[0], bounds[1] + 1e-9);
+			rangeAxis.setRange(bounds[2], bounds[3] + 1e-9);
+		}
+		dataset.setResolution(domainAxis, rangeAxis, PLOT_WIDTH, PLOT_HEIGHT);
+
+		long items = 0;
+		double sum = 0;
+		for(int s = 0; s < dataset.getSeriesCount(); s++) {
+			for(int item = 0; item < dataset.getItemCount(s); item++) {
+				sum += dataset.getXValue(s, item) + dataset.getYValue(s, item);
+				items++;
+			}
+		}
+		sink += (long)sum;
+		return items;
+	}
+
+	/**
+	 * Prepares a plot the way plotPoints originally did, filtering & grouping
+	 * 	the List, then copying each ID's points into a double[][]
+	 * @return Number of points copied
+	 */
+	private static long plotChain(
+			List<RaDec> list,
+			int start,
+			int stop,
+			Collection<Integer> ids) {
+
+		Map<Integer, List<RaDec>> pointsById = RaDec.groupByID(
+				RaDec.filterById(RaDec.filterByRange(list, start, stop), ids));
+		long points = 0;
+		for(List<RaDec> raDecs : pointsById.values()) {
+			double[][] data = new double[2][raDecs.size()];
+			for(int i = 0; i < raDecs.size(); i++) {
+				data[0][i] = raDecs.get(i).getRightAscension();
+				data[1][i] = raDecs.get(i).getDeclination();
+			}
+			points += data[0].length;
+		}
+		return points;
+	}
+
+	/**
+	 * Warms up & times a benchmark, printing & writing out the results
+	 * @param name Name of the benchmark
+	 * @param rows Rows in the table it runs on
+	 * @param benchmark The benchmark, returning a count to keep it live
+	 */
+	private void measure(String name, int rows, Callable<Long> benchmark) {
+		com.sun.management.ThreadMXBean allocations =
+				threads instanceof com.sun.management.ThreadMXBean ?
+						(com.sun.management.ThreadMXBean)threads : null;
+		long thread = Thread.currentThread().getId();
+
+		try {
+			long began = System.nanoTime();
+			for(int r = 0; r < runs && System.nanoTime() - began < WARMUP_NANOS; r++) {
+				sink += benchmark.call();
+			}
+
+			long[] nanos = new long[runs];
+			long bytes = 0;
+			long[] gcs = collections();
+			int done = 0;
+			began = System.nanoTime();
+			while(done < runs && (done < MIN_RUNS ||
+					System.nanoTime() - began < MEASURE_NANOS)) {
+				long allocated = allocations == null ?
+						0 : allocations.getThreadAllocatedBytes(thread);
+				long runBegan = System.nanoTime();
+				sink += benchmark.call();
+				nanos[done] = System.nanoTime() - runBegan;
+				if(allocations != null) {
+					bytes += allocations.getThreadAllocatedBytes(thread) - allocated;
+				}
+				done++;
+			}
+			long[] gcsAfter = collections();
+
+			long[] sorted = Arrays.copyOf(nanos, done);
+			Arrays.sort(sorted);
+			long total = 0;
+			for(long n : sorted) {
+				total += n;
+			}
+			report(name, rows, done,
+					sorted[done / 2], sorted[Math.min(done - 1, done * 9 / 10)],
+					sorted[0], total,
+					allocations == null ? -1 : bytes / done,
+					gcsAfter[0] - gcs[0], gcsAfter[1] - gcs[1]);
+		} catch(Exception e) {
+			System.out.println(name + " failed: " + e);
+		} catch(OutOfMemoryError e) {
+			System.out.println(name + " failed: " + e);
+		}
+	}
+
+	/**
+	 * @return Collections & ms spent collecting so far, over every collector
+	 */
+	private static long[] collections() {
+		long[] counts = new long[2];
+		for(GarbageCollectorMXBean gc :
+				ManagementFactory.getGarbageCollectorMXBeans()) {
+			counts[0] += Math.max(0, gc.getCollectionCount());
+			counts[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return counts;
+	}
+
+	private void report(
+			String name,
+			int rows,
+			int done,
+			long median,
+			long p90,
+			long min,
+			long total,
+			long bytesPerRun,
+			long gcCount,
+			long gcMillis) {
+
+		double rowsPerSecond = rows / (median / 1e9);
+		double allocMbPerSecond = bytesPerRun < 0 ? -1 :
+				bytesPerRun * (double)done / (total / 1e9) / (1024.0 * 1024.0);
+		System.out.printf("%-20s %,11d %5d %10.3f %10.3f %10.3f %,12.0f %,14d %9.1f %6d %8d%n",
+				name, rows, done, median / 1e6, p90 / 1e6, min / 1e6,
+				rowsPerSecond, bytesPerRun, allocMbPerSecond, gcCount, gcMillis);
+		if(csv != null) {
+			csv.printf("%s,%d,%d,%.3f,%.3f,%.3f,%.0f,%d,%.1f,%d,%d%n",
+					name, rows, done, median / 1e6, p90 / 1e6, min / 1e6,
+					rowsPerSecond, bytesPerRun, allocMbPerSecond, gcCount, gcMillis);
+		}
+	}
+
+	public static void main(String[] args) {
+		File seedFile = new File(args.length > 0 ? args[0] : "radec.txt");
+		String sizes = args.length > 1 ? args[1] : "1000,1000000,50000000";
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		File csvFile = args.length > 3 ? new File(args[3]) : null;
+
+		Writer csv = null;
+		try {
+			RaDecTable seed = new RaDecLoader().load(
+					Collections.singletonList(seedFile), new RaDecTable(), null);
+			System.out.printf("Seed %s: %,d rows; %d processors, %d MB heap, " +
+					"Java %s%n", seedFile, seed.size(),
+					Runtime.getRuntime().availableProcessors(),
+					Runtime.getRuntime().maxMemory() >> 20,
+					System.getProperty("java.version"));
+
+			if(csvFile != null) csv = new BufferedWriter(new FileWriter(csvFile));
+			RaDecBenchmark benchmark = new RaDecBenchmark(runs, csv);
+			for(String size : sizes.split(",")) {
+				benchmark.run(seed, Integer.parseInt(size.trim()));
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			if(csv != null) {
+				try { csv.close(); } catch (IOException e) {}
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.dbs.gps.bench;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.XYDataset;
+
+import com.dbs.gps.gui.RasterXYPlot;
+
+/**
+ * Benchmarks frame time of the stock scatter plot against a RasterXYPlot over
+ * synthetic trajectories, drawing an 800x600 chart of each size. The stock
+ * plot is skipped above the given limit, 1M points by default, as it takes
+ * minutes beyond that.
+ *
+ * <p>Usage: ScatterBenchmark [sizes, comma separated] [stock limit]</p>
+ *
+ * @author Derek Springer
+ */
+public class ScatterBenchmark {
+
+	public static void main(String[] args) {
+		String[] sizes = (args.length > 0 ? args[0] : "1000000,10000000,50000000")
+				.split(",");
+		long stockLimit = args.length > 1 ? Long.parseLong(args[1]) : 1000000;
+
+		System.out.printf("%-10s %12s %12s%n", "points", "stock ms", "raster ms");
+		for(String size : sizes) {
+			int points = Integer.parseInt(size.trim());
+			XYDataset dataset = new Trajectories(25, points);
+			JFreeChart raster =
+					RasterXYPlot.createScatterPlot(null, "x", "y", dataset);
+			JFreeChart stock = ChartFactory.createScatterPlot(null, "x", "y",
+					dataset, PlotOrientation.VERTICAL, true, true, false);
+			raster.setAntiAlias(false);
+			stock.setAntiAlias(false);
+
+			double rasterMillis = time(raster, 5);
+			double stockMillis = points <= stockLimit ? time(stock, 1) : Double.NaN;
+			System.out.printf("%-10d %12.1f %12.1f%n",
+					points, stockMillis, rasterMillis);
+		}
+	}
+
+	/**
+	 * @return Median time to draw the chart, in ms
+	 */
+	private static double time(JFreeChart chart, int runs) {
+		BufferedImage frame = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+		double[] millis = new double[runs];
+		for(int r = 0; r < runs; r++) {
+			Graphics2D g = frame.createGraphics();
+			long began = System.nanoTime();
+			chart.draw(g, new Rectangle(0, 0, 800, 600), new ChartRenderingInfo());
+			millis[r] = (System.nanoTime() - began) / 1e6;
+			g.dispose();
+		}
+		Arrays.sort(millis);
+		return millis[runs / 2];
+	}
+
+	/**
+	 * Spiralling trajectories computed from the item number, so large
+	 * 	datasets take no memory
+	 */
+	private static class Trajectories extends AbstractXYDataset {
+		private static final long serialVersionUID = 1L;
+
+		final int series;
+		final int items;
+
+		Trajectories(int series, int points) {
+			this.series = series;
+			this.items = points / series;
+		}
+
+		@Override
+		public int getSeriesCount() {
+			return series;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public Comparable getSeriesKey(int s) {
+			return s;
+		}
+
+		@Override
+		public int getItemCount(int s) {
+			return items;
+		}
+
+		@Override
+		public Number getX(int s, int item) {
+			return getXValue(s, item);
+		}
+
+		@Override
+		public double getXValue(int s, int item) {
+			double t = (double)item / items;
+			return (1 + 15 * t) * Math.cos(40 * t + s) + noise(s, item);
+		}
+
+		@Override
+		public Number getY(int s, int item) {
+			return getYValue(s, item);
+		}
+
+		@Override
+		public double getYValue(int s, int item) {
+			double t = (double)item / items;
+			return (1 + 15 * t) * Math.sin(40 * t + s) + noise(item, s);
+		}
+
+		private static double noise(int a, int b) {
+			int h = a * 0x9E3779B1 ^ b * 0x85EBCA6B;
+			h ^= h >>> 15;
+			h *= 0x2C1B3C6D;
+			h ^= h >>> 12;
+			return (h & 0xFFFF) / 65536.0 - 0.5;
+		}
+	}
+}
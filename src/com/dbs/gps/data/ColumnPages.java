@@ -0,0 +1,92 @@
+package com.dbs.gps.data;
+
+/**
+ * Sizes the pages of a growable column of a RaDecTable, whether of ints or
+ * doubles & on the heap or off it. Values are kept in pages of 2^shift
+ * rows, so growing a large column adds pages rather than copying what is
+ * already there. A column smaller than a page has a single page sized to
+ * fit, which grows by half as needed. Subclasses hold the pages & make,
+ * drop & resize them as told.
+ *
+ * @author Derek Springer
+ */
+abstract class ColumnPages {
+
+	final int shift;
+	final int size;
+	final int mask;
+
+	/**
+	 * @param shift Rows per whole page, as a power of 2
+	 */
+	ColumnPages(int shift) {
+		this.shift = shift;
+		this.size = 1 << shift;
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @return Number of pages
+	 */
+	abstract int count();
+
+	/**
+	 * @return Number of rows the first page holds
+	 */
+	abstract int firstSize();
+
+	/**
+	 * Keeps the first count pages, adding whole pages up to count if there
+	 * 	are fewer
+	 * @param count Number of pages to have
+	 */
+	abstract void resize(int count);
+
+	/**
+	 * Replaces the first page, or makes it if there are none, w/ one of the
+	 * 	given number of rows holding the first length values of the old.
+	 * 	Only called while there is at most one page.
+	 * @param rows Number of rows of the new page
+	 * @param length Number of rows in use
+	 */
+	abstract void resizeFirst(int rows, int length);
+
+	/**
+	 * @return Number of rows the pages can hold
+	 */
+	int capacity() {
+		return count() == 1 ? firstSize() : count() << shift;
+	}
+
+	/**
+	 * Makes room for at least the given number of rows
+	 * @param capacity Minimum number of rows
+	 * @param length Number of rows in use
+	 */
+	void grow(int capacity, int length) {
+		if(capacity <= capacity()) return;
+
+		if(capacity < size) {
+			int current = count() == 0 ? 0 : firstSize();
+			resizeFirst(Math.min(size,
+					Math.max(capacity, current + (current >> 1))), length);
+			return;
+		}
+
+		if(count() == 1 && firstSize() < size) resizeFirst(size, length);
+		resize((int)(((long)capacity + mask) >>> shift));
+	}
+
+	/**
+	 * Drops the pages past the given number of rows, shrinking the first to
+	 * 	fit if it's the only one left
+	 * @param length Number of rows in use
+	 */
+	void trim(int length) {
+		int count = Math.max(1, (length + mask) >>> shift);
+		if(count < count()) resize(count);
+		if(count == 1 && length < firstSize()) {
+			resizeFirst(Math.max(length, 1), length);
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package com.dbs.gps.data;
+
+import java.util.Arrays;
+
+/**
+ * An index from each ID in a RaDecTable to the rows holding that ID. Every
+ * ID has a posting list of its row numbers in time order (ties in row
+ * order), so selecting a few IDs touches only their own rows, & a time
+ * window within an ID's posting list is a contiguous range found by binary
+ * search.
+ *
+ * <p>Rows appended to the table are added to the posting lists of their
+ * IDs only; a list is merged rather than appended to when the new rows are
+ * older than its last row.</p>
+ *
+ * <p>Each list also keeps the bounds of its rows' right ascension &
+ * declination by segment, so the bounds of a window of it are found w/o
+ * visiting its rows.</p>
+ *
+ * @author Derek Springer
+ */
+public class IdIndex {
+
+	/**
+	 * Table the index is over
+	 */
+	private final RaDecTable table;
+
+	/**
+	 * Sorted distinct IDs
+	 */
+	private int[] ids = new int[0];
+
+	/**
+	 * Posting list of each ID, parallel to ids
+	 */
+	private Posting[] postings = new Posting[0];
+
+	/**
+	 * Number of rows indexed
+	 */
+	private int size = 0;
+
+	/**
+	 * Builds an index over all the rows of the given table
+	 * @param table RaDecTable to index
+	 */
+	public IdIndex(RaDecTable table) {
+		this(table, table.getTimeIndex());
+	}
+
+	/**
+	 * Builds an index over the rows covered by the given time index. Stops
+	 * 	early if the thread is interrupted, leaving the index incomplete, so
+	 * 	the caller must then throw it away.
+	 * @param table RaDecTable to index
+	 * @param timeIndex TimeIndex over every row of the table
+	 */
+	IdIndex(RaDecTable table, TimeIndex timeIndex) {
+		this.table = table;
+
+		// walking the rows in time order fills each list already sorted
+		int n = timeIndex.size();
+		for(int i = 0; i < n; i++) {
+			if((i & 0xFFFF) == 0 && Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			int row = timeIndex.getRow(i);
+			Posting posting = getOrAdd(table.getId(row));
+			posting.append(row);
+		}
+		size = n;
+	}
+
+	/**
+	 * Adds the rows appended to the table since the index was last updated
+	 */
+	public void update() {
+		int n = table.size();
+		if(n <= size) return;
+
+		// gather each ID's new rows as (time, row) keys, then sort & add them
+		int[] counts = new int[ids.length];
+		Posting[] touched = new Posting[ids.length];
+		long[][] keys = new long[ids.length][];
+		for(int row = size; row < n; row++) {
+			int slot = slotOf(table.getId(row));
+			if(slot < 0) {
+				getOrAdd(table.getId(row));
+				slot = slotOf(table.getId(row));
+				counts = insert(counts, slot);
+				touched = insert(touched, slot);
+				keys = insert(keys, slot);
+			}
+			if(keys[slot] == null) {
+				keys[slot] = new long[16];
+				touched[slot] = postings[slot];
+			} else if(counts[slot] == keys[slot].length) {
+				keys[slot] = Arrays.copyOf(keys[slot], counts[slot] * 2);
+			}
+			keys[slot][counts[slot]++] =
+					((long)table.getTime(row) << 32) | row;
+		}
+
+		for(int slot = 0; slot < touched.length; slot++) {
+			if(touched[slot] == null) continue;
+			long[] slotKeys = keys[slot];
+			Arrays.sort(slotKeys, 0, counts[slot]);
+			touched[slot].add(slotKeys, counts[slot]);
+		}
+		size = n;
+	}
+
+	/**
+	 * Brings the segment bounds of every posting list up to date, so later
+	 * 	queries for bounds only walk the tree. Stops early if the thread is
+	 * 	interrupted.
+	 */
+	public void updateBounds() {
+		for(Posting posting : postings) {
+			if(Thread.currentThread().isInterrupted()) return;
+			posting.updateBounds();
+		}
+	}
+
+	/**
+	 * @return Number of rows indexed
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Number of distinct IDs
+	 */
+	public int getIdCount() {
+		return ids.length;
+	}
+
+	/**
+	 * @return Sorted distinct IDs in the table
+	 */
+	public int[] getIds() {
+		return ids.clone();
+	}
+
+	/**
+	 * @param id ID to look up
+	 * @return Posting list of the ID, or null if it isn't in the table
+	 */
+	public Posting get(int id) {
+		int slot = slotOf(id);
+		return slot < 0 ? null : postings[slot];
+	}
+
+	private int slotOf(int id) {
+		return Arrays.binarySearch(ids, id);
+	}
+
+	private Posting getOrAdd(int id) {
+		int slot = slotOf(id);
+		if(slot >= 0) return postings[slot];
+
+		slot = -slot - 1;
+		Posting posting = new Posting(id);
+		int[] newIds = new int[ids.length + 1];
+		System.arraycopy(ids, 0, newIds, 0, slot);
+		System.arraycopy(ids, slot, newIds, slot + 1, ids.length - slot);
+		newIds[slot] = id;
+		ids = newIds;
+		postings = insert(postings, slot);
+		postings[slot] = posting;
+
+		return posting;
+	}
+
+	private static int[] insert(int[] array, int slot) {
+		int[] grown = new int[array.length + 1];
+		System.arraycopy(array, 0, grown, 0, slot);
+		System.arraycopy(array, slot, grown, slot + 1, array.length - slot);
+		return grown;
+	}
+
+	private static <T> T[] insert(T[] array, int slot) {
+		T[] grown = Arrays.copyOf(array, array.length + 1);
+		System.arraycopy(array, slot, grown, slot + 1, array.length - slot);
+		grown[slot] = null;
+		return grown;
+	}
+
+	/**
+	 * The rows of one ID, in time order
+	 */
+	public class Posting {
+
+		private final int id;
+
+		private int[] rows = new int[16];
+
+		private int size = 0;
+
+		/**
+		 * Bounds by segment, created on first use
+		 */
+		private SegmentBounds bounds = null;
+
+		Posting(int id) {
+			this.id = id;
+		}
+
+		void append(int row) {
+			if(size == rows.length) {
+				rows = Arrays.copyOf(rows, size + (size >> 1));
+			}
+			rows[size++] = row;
+		}
+
+		/**
+		 * Adds rows given as sorted (time &lt;&lt; 32 | row) keys
+		 */
+		void add(long[] keys, int count) {
+			int firstTime = (int)(keys[0] >> 32);
+			if(size == 0 || firstTime >= table.getTime(rows[size - 1])) {
+				for(int i = 0; i < count; i++) {
+					append((int)keys[i]);
+				}
+				return;
+			}
+
+			int[] merged = new int[Math.max(16, size + count)];
+			int i = 0;
+			int j = 0;
+			int k = 0;
+			while(i < size && j < count) {
+				// existing rows come first on ties, they have lower row numbers
+				if(table.getTime(rows[i]) <= (int)(keys[j] >> 32)) {
+					merged[k++] = rows[i++];
+				} else {
+					merged[k++] = (int)keys[j++];
+				}
+			}
+			while(i < size) merged[k++] = rows[i++];
+			while(j < count) merged[k++] = (int)keys[j++];
+			rows = merged;
+			size = k;
+		}
+
+		/**
+		 * @return The ID
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * @return Number of rows w/ the ID
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @param position Position in the posting list
+		 * @return Row number in the table of the row at that position
+		 */
+		public int getRow(int position) {
+			return rows[position];
+		}
+
+		/**
+		 * Returns the array backing the posting list, w/o copying it. Appends
+		 * 	may write past size() & a merge replaces the array, but the first
+		 * 	size() entries of an array are never changed once returned.
+		 * @return Row numbers of the posting list in [0, size())
+		 */
+		public int[] getRows() {
+			return rows;
+		}
+
+		/**
+		 * Widens the given bounds to take in the rows at positions
+		 * 	[first, end), from the bounds of whole segments & the rows of the
+		 * 	partial ones at either end
+		 * @param first Position of the first row
+		 * @param end Position just past the last row
+		 * @param bounds Least & greatest right ascension, then least &
+		 * 	greatest declination, to widen
+		 */
+		public synchronized void widenBounds(int first, int end, double[] bounds) {
+			updateBounds();
+			this.bounds.widen(first, Math.min(end, size), bounds);
+		}
+
+		/**
+		 * Brings the segment bounds up to date w/ the rows of the list
+		 */
+		synchronized void updateBounds() {
+			if(bounds == null) bounds = new SegmentBounds(table);
+			bounds.update(rows, size);
+		}
+
+		/**
+		 * @param start Start time of the window
+		 * @return Position of the first row w/ time &gt;= start
+		 */
+		public int first(int start) {
+			int lo = 0;
+			int hi = size;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(table.getTime(rows[mid]) < start) lo = mid + 1;
+				else hi = mid;
+			}
+			return lo;
+		}
+
+		/**
+		 * @param stop End time of the window
+		 * @return Position just past the last row w/ time &lt;= stop
+		 */
+		public int end(int stop) {
+			int lo = 0;
+			int hi = size;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(table.getTime(rows[mid]) <= stop) lo = mid + 1;
+				else hi = mid;
+			}
+			return lo;
+		}
+	}
+}
@@ -0,0 +1,349 @@
+package com.dbs.gps.data;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A column of int values backing a RaDecTable. Columns live either on the
+ * heap in int[] pages, off the heap in growable pages of direct or memory
+ * mapped buffers, or in a set of fixed size IntBuffer pages, such as the
+ * memory mapped columns of a RaDecCache file.
+ *
+ * @author Derek Springer
+ */
+abstract class IntColumn {
+
+	abstract int get(int row);
+
+	abstract void set(int row, int value);
+
+	/**
+	 * @return Number of rows the column can hold
+	 */
+	abstract int capacity();
+
+	/**
+	 * @return true if set is not supported
+	 */
+	abstract boolean isReadOnly();
+
+	/**
+	 * Returns a writable column w/ room for at least the given number of rows
+	 * 	holding the first length values of this one. May return this column.
+	 * @param capacity Minimum number of rows
+	 * @param length Number of rows in use
+	 * @param storage Where to keep a new column, should this one have to be
+	 * 	replaced
+	 * @return Column to use in place of this one
+	 */
+	abstract IntColumn grow(int capacity, int length, RaDecTable.Storage storage);
+
+	/**
+	 * @param storage Where to keep the column
+	 * @param capacity Number of rows the column can hold
+	 * @return A new, empty column
+	 */
+	static IntColumn create(RaDecTable.Storage storage, int capacity) {
+		return storage == RaDecTable.Storage.HEAP ?
+				new Heap(capacity) : new OffHeap(storage, capacity);
+	}
+
+	/**
+	 * Returns a column holding just the first length values of this one.
+	 * 	May return this column.
+	 * @param length Number of rows in use
+	 * @return Column to use in place of this one
+	 */
+	IntColumn trim(int length) {
+		return this;
+	}
+
+	/**
+	 * Frees any memory the column holds off the heap. The column can't be
+	 * 	used after.
+	 */
+	void release() {}
+
+	/**
+	 * @return Bytes the column holds off the heap that release frees
+	 */
+	long getOffHeapBytes() {
+		return 0;
+	}
+
+	/**
+	 * Returns a view of rows of the column from the given one on, no further
+	 * 	than the end of its page, which reads & writes through to the column
+	 * @param row First row of the view
+	 * @param length Most rows to view
+	 * @return Buffer positioned at the row, w/ 1 to length rows remaining
+	 */
+	abstract IntBuffer slice(int row, int length);
+
+	/**
+	 * Copies values from this column into another, a page at a time
+	 * @param from First row to copy in this column
+	 * @param dest Column to copy to
+	 * @param to First row to copy to in dest
+	 * @param length Number of rows to copy
+	 */
+	void copyTo(int from, IntColumn dest, int to, int length) {
+		while(length > 0) {
+			IntBuffer src = slice(from, length);
+			int n = src.remaining();
+			dest.put(to, src);
+			from += n;
+			to += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Writes the remaining values of a buffer from the given row on
+	 * @param row First row to write
+	 * @param values Values to write, which are all consumed
+	 */
+	void put(int row, IntBuffer values) {
+		while(values.hasRemaining()) {
+			IntBuffer dst = slice(row, values.remaining());
+			int n = dst.remaining();
+			IntBuffer src = values.duplicate();
+			src.limit(src.position() + n);
+			dst.put(src);
+			values.position(values.position() + n);
+			row += n;
+		}
+	}
+
+	/**
+	 * An int column on the heap, in int[] pages of PAGE_SIZE rows laid out
+	 * 	by ColumnPages
+	 */
+	static class Heap extends IntColumn {
+
+		static final int PAGE_SHIFT = 16;
+		static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+		static final int PAGE_MASK = PAGE_SIZE - 1;
+
+		private int[][] pages = new int[0][];
+
+		private final ColumnPages layout = new ColumnPages(PAGE_SHIFT) {
+			@Override
+			int count() {
+				return pages.length;
+			}
+
+			@Override
+			int firstSize() {
+				return pages[0].length;
+			}
+
+			@Override
+			void resize(int count) {
+				int old = pages.length;
+				int[][] resized = Arrays.copyOf(pages, count);
+				for(int p = old; p < count; p++) {
+					resized[p] = new int[PAGE_SIZE];
+				}
+				pages = resized;
+			}
+
+			@Override
+			void resizeFirst(int rows, int length) {
+				pages = new int[][] { pages.length == 0 ?
+						new int[rows] : Arrays.copyOf(pages[0], rows) };
+			}
+		};
+
+		Heap(int capacity) {
+			layout.grow(capacity, 0);
+		}
+
+		@Override
+		int get(int row) {
+			return pages[row >>> PAGE_SHIFT][row & PAGE_MASK];
+		}
+
+		@Override
+		void set(int row, int value) {
+			pages[row >>> PAGE_SHIFT][row & PAGE_MASK] = value;
+		}
+
+		@Override
+		int capacity() {
+			return layout.capacity();
+		}
+
+		@Override
+		boolean isReadOnly() {
+			return false;
+		}
+
+		@Override
+		IntColumn grow(int capacity, int length, RaDecTable.Storage storage) {
+			layout.grow(capacity, length);
+			return this;
+		}
+
+		@Override
+		IntColumn trim(int length) {
+			layout.trim(length);
+			return this;
+		}
+
+		@Override
+		IntBuffer slice(int row, int length) {
+			int[] page = pages[row >>> PAGE_SHIFT];
+			int offset = row & PAGE_MASK;
+			return IntBuffer.wrap(
+					page, offset, Math.min(length, page.length - offset));
+		}
+	}
+
+	/**
+	 * An int column backed by IntBuffer pages of 2^PAGE_SHIFT rows each
+	 */
+	static class Paged extends IntColumn {
+
+		static final int PAGE_SHIFT = 27;
+		static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+		private final IntBuffer[] pages;
+		private final int capacity;
+
+		Paged(IntBuffer[] pages, int capacity) {
+			this.pages = pages;
+			this.capacity = capacity;
+		}
+
+		@Override
+		int get(int row) {
+			return pages[row >>> PAGE_SHIFT].get(row & PAGE_MASK);
+		}
+
+		@Override
+		void set(int row, int value) {
+			pages[row >>> PAGE_SHIFT].put(row & PAGE_MASK, value);
+		}
+
+		@Override
+		int capacity() {
+			return capacity;
+		}
+
+		@Override
+		boolean isReadOnly() {
+			return pages.length > 0 && pages[0].isReadOnly();
+		}
+
+		@Override
+		IntColumn grow(int capacity, int length, RaDecTable.Storage storage) {
+			if(capacity <= this.capacity && !isReadOnly()) return this;
+
+			// copy on write, appending to a mapped column moves it to the
+			// table's own storage
+			IntColumn column = create(storage, Math.max(capacity, length));
+			copyTo(0, column, 0, length);
+			return column;
+		}
+
+		@Override
+		IntBuffer slice(int row, int length) {
+			IntBuffer page = pages[row >>> PAGE_SHIFT].duplicate();
+			int offset = row & PAGE_MASK;
+			page.limit(offset + Math.min(length, page.limit() - offset));
+			page.position(offset);
+			return page;
+		}
+	}
+
+	/**
+	 * An int column off the heap, in pages of direct or memory mapped
+	 * 	buffers held by OffHeapPages.Buffers, which grow as Heap's do but
+	 * 	are bigger. The column owns its pages: release frees them at once
+	 * 	rather than when collected.
+	 */
+	static class OffHeap extends IntColumn {
+
+		static final int PAGE_SHIFT = OffHeapPages.Buffers.PAGE_SHIFT;
+		static final int PAGE_MASK = OffHeapPages.Buffers.PAGE_MASK;
+
+		private final OffHeapPages.Buffers buffers;
+
+		/**
+		 * Views of the buffers read & written
+		 */
+		private IntBuffer[] pages = new IntBuffer[0];
+
+		OffHeap(RaDecTable.Storage storage, int capacity) {
+			buffers = new OffHeapPages.Buffers(storage, 4);
+			grow(capacity, 0, storage);
+		}
+
+		@Override
+		int get(int row) {
+			return pages[row >>> PAGE_SHIFT].get(row & PAGE_MASK);
+		}
+
+		@Override
+		void set(int row, int value) {
+			pages[row >>> PAGE_SHIFT].put(row & PAGE_MASK, value);
+		}
+
+		@Override
+		int capacity() {
+			return buffers.capacity();
+		}
+
+		@Override
+		boolean isReadOnly() {
+			return false;
+		}
+
+		@Override
+		IntColumn grow(int capacity, int length, RaDecTable.Storage storage) {
+			if(capacity <= capacity()) return this;
+			buffers.grow(capacity, length);
+			updatePages();
+			return this;
+		}
+
+		@Override
+		IntColumn trim(int length) {
+			buffers.trim(length);
+			updatePages();
+			return this;
+		}
+
+		/**
+		 * Makes views of the buffers after they've changed
+		 */
+		private void updatePages() {
+			IntBuffer[] views = new IntBuffer[buffers.count()];
+			for(int p = 0; p < views.length; p++) {
+				views[p] = buffers.get(p).asIntBuffer();
+			}
+			pages = views;
+		}
+
+		@Override
+		IntBuffer slice(int row, int length) {
+			IntBuffer page = pages[row >>> PAGE_SHIFT].duplicate();
+			int offset = row & PAGE_MASK;
+			page.limit(offset + Math.min(length, page.limit() - offset));
+			page.position(offset);
+			return page;
+		}
+
+		@Override
+		void release() {
+			buffers.release();
+			pages = new IntBuffer[0];
+		}
+
+		@Override
+		long getOffHeapBytes() {
+			return buffers.getBytes();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.dbs.gps.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Allocates & frees the off-heap pages of the IntColumn.OffHeap &
+ * DoubleColumn.OffHeap columns of a RaDecTable, as direct buffers or as
+ * buffers memory mapped from temporary files.
+ *
+ * <p>The JDK frees a direct or mapped buffer only once the garbage collector
+ * finds it unreachable, which for memory the heap never sees may be long
+ * after it's dropped. free releases a page at once through the buffer's
+ * cleaner where the JVM allows, falling back to the collector where not.</p>
+ *
+ * <p>The pages of a column are held by Buffers, which sizes them by the
+ * width of the column's values, so columns of ints & doubles share it.</p>
+ *
+ * @author Derek Springer
+ */
+final class OffHeapPages {
+
+	/**
+	 * Directory the files of mapped pages are made in
+	 */
+	private static final File DIRECTORY = new File(System.getProperty(
+			"radec.offheap.dir", System.getProperty("java.io.tmpdir")));
+
+	/**
+	 * Frees a buffer at once, or null if the JVM doesn't allow it
+	 */
+	private static final Cleaner CLEANER = findCleaner();
+
+	private OffHeapPages() {}
+
+	/**
+	 * Allocates a page, zeroed & in native byte order
+	 * @param storage RaDecTable.Storage.DIRECT or MAPPED
+	 * @param bytes Size of the page
+	 * @return The page
+	 */
+	static ByteBuffer allocate(RaDecTable.Storage storage, int bytes) {
+		if(storage != RaDecTable.Storage.MAPPED) {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+
+		try {
+			File file = File.createTempFile("radec", ".col", DIRECTORY);
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				out.setLength(bytes);
+				return out.getChannel()
+						.map(FileChannel.MapMode.READ_WRITE, 0, bytes)
+						.order(ByteOrder.nativeOrder());
+			} finally {
+				out.close();
+				// the mapping outlives the file on most systems, else it goes
+				// when the JVM exits
+				if(!file.delete()) file.deleteOnExit();
+			}
+		} catch(IOException e) {
+			throw new IllegalStateException(
+					"Can't map a page of " + bytes + " bytes in " + DIRECTORY, e);
+		}
+	}
+
+	/**
+	 * Frees a page. Nothing may read or write the page once freed.
+	 * @param page Page to free
+	 */
+	static void free(ByteBuffer page) {
+		if(CLEANER == null || page == null || !page.isDirect()) return;
+		try {
+			CLEANER.clean(page);
+		} catch(Exception e) {
+			// left to the garbage collector
+		}
+	}
+
+	/**
+	 * The pages of an off-heap column, each a buffer of 2^PAGE_SHIFT values
+	 * 	of the given width, bar a lone first page sized to fit. The pages
+	 * 	belong to the column: release frees them at once rather than when
+	 * 	collected. Pages dropped by growing or trimming are only left to be
+	 * 	collected, as another thread may still be reading them.
+	 */
+	static class Buffers extends ColumnPages {
+
+		static final int PAGE_SHIFT = 22;
+		static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+		private final RaDecTable.Storage storage;
+
+		/**
+		 * Bytes per value
+		 */
+		private final int width;
+
+		private ByteBuffer[] pages = new ByteBuffer[0];
+
+		/**
+		 * @param storage RaDecTable.Storage.DIRECT or MAPPED
+		 * @param width Bytes per value
+		 */
+		Buffers(RaDecTable.Storage storage, int width) {
+			super(PAGE_SHIFT);
+			this.storage = storage;
+			this.width = width;
+		}
+
+		/**
+		 * @param page Index of the page
+		 * @return The page, in native byte order
+		 */
+		ByteBuffer get(int page) {
+			return pages[page];
+		}
+
+		@Override
+		int count() {
+			return pages.length;
+		}
+
+		@Override
+		int firstSize() {
+			return pages[0].capacity() / width;
+		}
+
+		@Override
+		void resize(int count) {
+			int old = pages.length;
+			ByteBuffer[] resized = Arrays.copyOf(pages, count);
+			for(int p = old; p < count; p++) {
+				resized[p] = allocate(storage, width * size);
+			}
+			pages = resized;
+		}
+
+		@Override
+		void resizeFirst(int rows, int length) {
+			ByteBuffer page = allocate(storage, width * rows);
+			if(pages.length > 0) {
+				ByteBuffer src = pages[0].duplicate();
+				src.clear().limit(
+						width * Math.min(rows, Math.min(length, firstSize())));
+				page.duplicate().put(src);
+			}
+			pages = new ByteBuffer[] { page };
+		}
+
+		/**
+		 * Frees the pages at once. Nothing may read or write them after.
+		 */
+		void release() {
+			for(ByteBuffer page : pages) {
+				free(page);
+			}
+			pages = new ByteBuffer[0];
+		}
+
+		/**
+		 * @return Bytes the pages take
+		 */
+		long getBytes() {
+			long bytes = 0;
+			for(ByteBuffer page : pages) {
+				bytes += page.capacity();
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * Frees a direct buffer
+	 */
+	private interface Cleaner {
+		void clean(ByteBuffer buffer) throws Exception;
+	}
+
+	/**
+	 * @return Cleaner of the JVM, sun.misc.Unsafe.invokeCleaner from Java 9
+	 * 	& the buffer's own cleaner before, or null if neither can be used
+	 */
+	private static Cleaner findCleaner() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner =
+					unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			final Object unsafe = field.get(null);
+			return new Cleaner() {
+				@Override
+				public void clean(ByteBuffer buffer) throws Exception {
+					invokeCleaner.invoke(unsafe, buffer);
+				}
+			};
+		} catch(Exception e) {
+			// before Java 9
+		}
+
+		try {
+			ByteBuffer probe = ByteBuffer.allocateDirect(1);
+			final Method cleaner = probe.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			final Method clean =
+					cleaner.invoke(probe).getClass().getMethod("clean");
+			clean.setAccessible(true);
+			clean.invoke(cleaner.invoke(probe));
+			return new Cleaner() {
+				@Override
+				public void clean(ByteBuffer buffer) throws Exception {
+					Object c = cleaner.invoke(buffer);
+					if(c != null) clean.invoke(c);
+				}
+			};
+		} catch(Exception e) {
+			return null;
+		}
+	}
+}
@@ -5,8 +5,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +16,8 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import com.dbs.gps.perf.Instrumentation;
+
 /**
  * A class to represent the right ascension & declination of an object at
  * a particular time
@@ -214,6 +218,269 @@ public class RaDec {
 		return timeGroup;
 	}
 	
+	/**
+	 * Loads RaDec rows from given URL into given table. Local files are
+	 * 	memory mapped & parsed in place by a RaDecParser, other URLs are
+	 * 	read line by line.
+	 * @param raDecURL URL to RaDec file
+	 * @param table RaDecTable to append rows to
+	 * @return The given table, w/ rows from given file appended in order
+	 */
+	public static RaDecTable loadRaDec(URL raDecURL, RaDecTable table) {
+		if("file".equals(raDecURL.getProtocol())) {
+			try {
+				File file = new File(raDecURL.toURI());
+				long began = System.nanoTime();
+				RaDecParser parser = new RaDecParser();
+				parser.parse(file, table);
+				Instrumentation.addBytesRead(parser.getBytesRead());
+				Instrumentation.record(
+						Instrumentation.LOAD, began, parser.getRowsRead());
+				return table;
+			} catch(URISyntaxException e) {
+				e.printStackTrace();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+			return table;
+		}
+		
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(
+					new InputStreamReader(raDecURL.openStream()));
+			
+			String line = null;
+			while((line = in.readLine()) != null) {
+				String[] splits = line.trim().split("\\s");
+				if(splits.length != 4) continue;
+				table.add(
+						Integer.parseInt(splits[0]),
+						Integer.parseInt(splits[1]),
+						Double.parseDouble(splits[2]),
+						Double.parseDouble(splits[3]));
+			}
+		}  catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			if(in != null) {
+				try { in.close(); } catch (IOException e) {}
+			}
+		}
+		
+		return table;
+	}
+	
+	/**
+	 * Returns a the set of ids contained within the table
+	 * @param table RaDecTable to grab ids from
+	 * @return Set of IDs contained in table
+	 */
+	public static Set<Integer> getIDs(RaDecTable table) {
+		Set<Integer> ids = new TreeSet<Integer>();
+		for(int i = 0; i < table.size(); i++) {
+			// rows tend to come in runs of the same id, skip the boxing
+			if(i > 0 && table.getId(i) == table.getId(i-1)) continue;
+			ids.add(table.getId(i));
+		}
+		
+		return ids;
+	}
+	
+	/**
+	 * Returns the start and stop times for the rows of the given table.
+	 * 	The table keeps these up to date as rows are added, so this is O(1).
+	 * @param table RaDecTable to grab range from
+	 * @return int[] w/ start in [0] and stop in [1]
+	 */
+	public static int[] getRange(RaDecTable table) {
+		return new int[] { table.getStartTime(), table.getStopTime() };
+	}
+	
+	/**
+	 * Filters the given table by the given collection of ids.
+	 * 	Every row with id not in ids will be excluded. Rows are gathered from
+	 * 	the posting lists of the table's IdIndex, so rows of other ids are
+	 * 	never visited & the result is grouped by id in time order.
+	 * @param table RaDecTable to filter
+	 * @param ids Collection of IDs to include
+	 * @return RaDecTable of filtered rows
+	 */
+	public static RaDecTable filterById(
+			RaDecTable table,
+			Collection<Integer> ids) {
+		
+		long began = System.nanoTime();
+		IdIndex index = table.getIdIndex();
+		RaDecTable filtered = new RaDecTable();
+		for(int id : toSortedArray(ids)) {
+			IdIndex.Posting posting = index.get(id);
+			if(posting == null) continue;
+			addRows(filtered, table, posting.getRows(), 0, posting.size());
+		}
+		Instrumentation.record(
+				Instrumentation.FILTER_BY_ID, began, filtered.size());
+		
+		return filtered;
+	}
+	
+	/**
+	 * Filters the given table by the given start/stop times.
+	 * 	Every row not within start/stop will be excluded. The window is found
+	 * 	by binary search on the table's TimeIndex, so only the k matching
+	 * 	rows are visited & the result is in time order.
+	 * @param table RaDecTable to filter
+	 * @param start Start time of filter
+	 * @param stop End time of filter
+	 * @return RaDecTable of filtered rows
+	 */
+	public static RaDecTable filterByRange(
+			RaDecTable table,
+			int start,
+			int stop) {
+		
+		long began = System.nanoTime();
+		TimeIndex index = table.getTimeIndex();
+		int first = index.first(start);
+		int end = index.end(stop);
+		RaDecTable filtered = new RaDecTable(Math.max(end - first, 0));
+		addRows(filtered, table, index.getRows(), first, end);
+		Instrumentation.record(
+				Instrumentation.FILTER_BY_RANGE, began, filtered.size());
+		
+		return filtered;
+	}
+	
+	/**
+	 * Groups the rows of the given table by their ID.
+	 * Note: does not sort results.
+	 * @param table RaDecTable to group
+	 * @return Map of RaDecTables, grouped by ID. 
+	 * 	key = id, val = RaDecTable for id
+	 */
+	public static Map<Integer, RaDecTable> groupByID(RaDecTable table) {
+		long began = System.nanoTime();
+		Map<Integer, RaDecTable> idGroup = 
+				new TreeMap<Integer, RaDecTable>();
+		
+		// rows come in runs of the same id, each copied in bulk
+		int run = 0;
+		for(int i = 1; i <= table.size(); i++) {
+			if(i < table.size() && table.getId(i) == table.getId(run)) continue;
+			int id = table.getId(run);
+			RaDecTable group = idGroup.get(id);
+			if(group == null) {
+				group = new RaDecTable();
+				idGroup.put(id, group);
+			}
+			group.addAll(table, run, i - run);
+			run = i;
+		}
+		Instrumentation.record(
+				Instrumentation.GROUP_BY_ID, began, table.size());
+		
+		return idGroup;
+	}
+	
+	/**
+	 * Filters the given table by the given start/stop times & ids, & groups
+	 * 	the rows by ID. Equivalent to
+	 * 	groupByID(filterById(filterByRange(table, start, stop), ids)), but
+	 * 	each id's rows in the window are found by binary search of its
+	 * 	posting list, so only the matching rows are visited.
+	 * @param table RaDecTable to filter
+	 * @param start Start time of filter
+	 * @param stop End time of filter
+	 * @param ids Collection of IDs to include
+	 * @return Map of RaDecTables in time order, grouped by ID. 
+	 * 	key = id, val = RaDecTable for id
+	 */
+	public static Map<Integer, RaDecTable> groupByID(
+			RaDecTable table,
+			int start,
+			int stop,
+			Collection<Integer> ids) {
+		
+		long began = System.nanoTime();
+		Map<Integer, RaDecTable> idGroup = 
+				new TreeMap<Integer, RaDecTable>();
+		
+		long rows = 0;
+		IdIndex index = table.getIdIndex();
+		for(int id : toSortedArray(ids)) {
+			IdIndex.Posting posting = index.get(id);
+			if(posting == null) continue;
+			int first = posting.first(start);
+			int end = posting.end(stop);
+			if(first >= end) continue;
+			
+			RaDecTable group = new RaDecTable(end - first);
+			addRows(group, table, posting.getRows(), first, end);
+			idGroup.put(id, group);
+			rows += group.size();
+		}
+		Instrumentation.record(Instrumentation.GROUP_BY_ID, began, rows);
+		
+		return idGroup;
+	}
+	
+	/**
+	 * Appends rows of one table to another, copying each run of consecutive
+	 * 	rows in bulk so columns in buffers off the heap are read a page at a
+	 * 	time rather than a value at a time
+	 * @param to Table to append to
+	 * @param from Table to copy from
+	 * @param rows Row numbers in from, in the order to append them
+	 * @param first Position in rows of the first row to append
+	 * @param end Position in rows just past the last row to append
+	 */
+	private static void addRows(
+			RaDecTable to,
+			RaDecTable from,
+			int[] rows,
+			int first,
+			int end) {
+		
+		to.ensureCapacity(to.size() + end - first);
+		int i = first;
+		while(i < end) {
+			int row = rows[i];
+			int run = 1;
+			while(i + run < end && rows[i + run] == row + run) run++;
+			if(run == 1) {
+				to.add(from, row);
+			} else {
+				to.addAll(from, row, run);
+			}
+			i += run;
+		}
+	}
+	
+	/**
+	 * Copies the given collection of ids into a sorted array suitable for
+	 * 	binary searching, each id once however often it's in ids
+	 * @param ids Collection of IDs
+	 * @return Sorted int[] of the distinct ids
+	 */
+	static int[] toSortedArray(Collection<Integer> ids) {
+		int[] sorted = new int[ids.size()];
+		int i = 0;
+		for(Integer id : ids) {
+			sorted[i++] = id;
+		}
+		Arrays.sort(sorted);
+		
+		int distinct = 0;
+		for(i = 0; i < sorted.length; i++) {
+			if(distinct == 0 || sorted[i] != sorted[distinct - 1]) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		
+		return distinct == sorted.length ?
+				sorted : Arrays.copyOf(sorted, distinct);
+	}
+	
 	@Override
 	public String toString() {
 		return String.format(
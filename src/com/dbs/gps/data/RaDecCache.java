@@ -0,0 +1,395 @@
+package com.dbs.gps.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Reads & writes the binary sidecar cache of a RaDec text file. The sidecar
+ * sits next to the source file w/ an extra ".rdc" extension & holds:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "RDC1"
+ *      4     4  format version
+ *      8     8  source file length
+ *     16     8  source file last modified time
+ *     24     8  source file checksum
+ *     32     8  row count (n)
+ *     40     4  start time
+ *     44     4  stop time
+ *     48     4  ID count (k)
+ *     52     4  reserved
+ *     56   4*k  sorted IDs
+ *  8 aligned  4*n  times
+ *            4*n  ids
+ *  8 aligned  8*n  right ascensions
+ *            8*n  declinations
+ * </pre>
+ *
+ * All values are little endian. The columns are fixed width so an opened
+ * cache is simply memory mapped & used as the columns of a read only
+ * RaDecTable, without decoding a single row.
+ *
+ * <p>The checksum is a CRC32 over the source length & a fixed number of
+ * blocks sampled evenly across the source, so validating a cache costs a
+ * handful of reads regardless of the size of the source file. Together with
+ * the length & last modified time it catches a source file which has been
+ * rewritten or appended to since the cache was made.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecCache {
+
+	/**
+	 * Extension added to the source file name to name its cache
+	 */
+	public static final String EXTENSION = ".rdc";
+
+	/**
+	 * "RDC1"
+	 */
+	private static final int MAGIC = 0x31434452;
+
+	/**
+	 * Current format version
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the fixed part of the header
+	 */
+	private static final int HEADER_SIZE = 56;
+
+	/**
+	 * Number of blocks sampled for the checksum, & their size
+	 */
+	private static final int CHECKSUM_BLOCKS = 17;
+	private static final int CHECKSUM_BLOCK_SIZE = 4096;
+
+	/**
+	 * Size of the buffer used when writing a cache
+	 */
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Returns the sidecar cache file of the given source file
+	 * @param source RaDec text file
+	 * @return The cache file, which may not exist
+	 */
+	public static File getCacheFile(File source) {
+		return new File(source.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Opens the cache of the given source file if there is a valid one
+	 * @param source RaDec text file
+	 * @param ids Set to add the cached IDs to, may be null
+	 * @return Read only RaDecTable mapped from the cache, or null if there is
+	 * 	no cache or it is out of date
+	 * @throws IOException If the cache can't be read
+	 */
+	public static RaDecTable open(
+			File source,
+			Set<Integer> ids) throws IOException {
+
+		File cacheFile = getCacheFile(source);
+		if(!cacheFile.isFile() || !source.isFile()) return null;
+
+		RandomAccessFile cache = new RandomAccessFile(cacheFile, "r");
+		try {
+			FileChannel channel = cache.getChannel();
+			if(channel.size() < HEADER_SIZE) return null;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			header.flip();
+			if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				return null;
+			}
+
+			long sourceLength = header.getLong(8);
+			if(sourceLength != source.length() ||
+					header.getLong(16) != source.lastModified() ||
+					header.getLong(24) != checksum(source, sourceLength)) {
+				return null;
+			}
+
+			long rows = header.getLong(32);
+			int startTime = header.getInt(40);
+			int stopTime = header.getInt(44);
+			int idCount = header.getInt(48);
+			if(rows < 0 || rows > Integer.MAX_VALUE || idCount < 0) {
+				return null;
+			}
+
+			int n = (int)rows;
+			long timesOffset = align(HEADER_SIZE + 4L * idCount);
+			long idsOffset = timesOffset + 4L * n;
+			long raOffset = align(idsOffset + 4L * n);
+			long decOffset = raOffset + 8L * n;
+			if(channel.size() != decOffset + 8L * n) return null;
+
+			if(ids != null && idCount > 0) {
+				IntBuffer idBuffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 4L * idCount)
+						.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+				for(int i = 0; i < idCount; i++) {
+					ids.add(idBuffer.get(i));
+				}
+			}
+
+			return new RaDecTable(
+					mapInts(channel, timesOffset, n),
+					mapInts(channel, idsOffset, n),
+					mapDoubles(channel, raOffset, n),
+					mapDoubles(channel, decOffset, n),
+					n,
+					startTime,
+					stopTime);
+		} finally {
+			cache.close();
+		}
+	}
+
+	/**
+	 * Writes the cache of the given source file. The cache is written to a
+	 * 	temporary file & renamed into place, so a failed write never leaves a
+	 * 	half written cache behind.
+	 * @param source RaDec text file the rows were read from
+	 * @param sourceLength Length of the source when it was read
+	 * @param lastModified Last modified time of the source when it was read
+	 * @param parts Tables holding the rows of the source, in order
+	 * @param ids IDs found in the source
+	 * @throws IOException If the cache can't be written
+	 */
+	public static void write(
+			File source,
+			long sourceLength,
+			long lastModified,
+			List<RaDecTable> parts,
+			Set<Integer> ids) throws IOException {
+
+		long rows = 0;
+		int startTime = Integer.MAX_VALUE;
+		int stopTime = 0;
+		for(RaDecTable part : parts) {
+			rows += part.size();
+			startTime = Math.min(startTime, part.getStartTime());
+			stopTime = Math.max(stopTime, part.getStopTime());
+		}
+
+		File cacheFile = getCacheFile(source);
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmpFile);
+		boolean written = false;
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putLong(sourceLength);
+			buf.putLong(lastModified);
+			buf.putLong(checksum(source, sourceLength));
+			buf.putLong(rows);
+			buf.putInt(startTime);
+			buf.putInt(stopTime);
+			buf.putInt(ids.size());
+			buf.putInt(0);
+			long position = HEADER_SIZE;
+			for(Integer id : ids) {
+				position += putInt(channel, buf, id);
+			}
+			position += pad(channel, buf, position);
+
+			for(RaDecTable part : parts) {
+				for(int i = 0; i < part.size(); i++) {
+					position += putInt(channel, buf, part.getTime(i));
+				}
+			}
+			for(RaDecTable part : parts) {
+				for(int i = 0; i < part.size(); i++) {
+					position += putInt(channel, buf, part.getId(i));
+				}
+			}
+			position += pad(channel, buf, position);
+			for(RaDecTable part : parts) {
+				for(int i = 0; i < part.size(); i++) {
+					putDouble(channel, buf, part.getRightAscension(i));
+				}
+			}
+			for(RaDecTable part : parts) {
+				for(int i = 0; i < part.size(); i++) {
+					putDouble(channel, buf, part.getDeclination(i));
+				}
+			}
+			flush(channel, buf);
+			written = true;
+		} finally {
+			out.close();
+			if(!written) tmpFile.delete();
+		}
+
+		cacheFile.delete();
+		if(!tmpFile.renameTo(cacheFile)) {
+			tmpFile.delete();
+			throw new IOException("Unable to rename " + tmpFile);
+		}
+	}
+
+	/**
+	 * Computes the sampled checksum of the first length bytes of a file
+	 * @param source File to checksum
+	 * @param length Number of bytes of the file to cover
+	 * @return CRC32 of the length & sampled blocks
+	 * @throws IOException If the file can't be read
+	 */
+	static long checksum(File source, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		for(int shift = 0; shift < 64; shift += 8) {
+			crc.update((int)(length >>> shift));
+		}
+
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileChannel channel = in.getChannel();
+			byte[] block = new byte[CHECKSUM_BLOCK_SIZE];
+			ByteBuffer buf = ByteBuffer.wrap(block);
+			long span = Math.max(0, length - CHECKSUM_BLOCK_SIZE);
+			for(int i = 0; i < CHECKSUM_BLOCKS; i++) {
+				long position = span * i / (CHECKSUM_BLOCKS - 1);
+				buf.clear();
+				buf.limit((int)Math.min(CHECKSUM_BLOCK_SIZE, length - position));
+				int read = 0;
+				while(buf.hasRemaining()) {
+					int n = channel.read(buf, position + read);
+					if(n < 0) break;
+					read += n;
+				}
+				crc.update(block, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+
+		return crc.getValue();
+	}
+
+	/**
+	 * Maps a column of ints in pages of IntColumn.Paged.PAGE_SHIFT rows
+	 */
+	private static IntColumn mapInts(
+			FileChannel channel,
+			long offset,
+			int rows) throws IOException {
+
+		int pageRows = 1 << IntColumn.Paged.PAGE_SHIFT;
+		IntBuffer[] pages = new IntBuffer[(rows + pageRows - 1) / pageRows];
+		for(int p = 0; p < pages.length; p++) {
+			long first = (long)p * pageRows;
+			long count = Math.min(pageRows, rows - first);
+			pages[p] = channel.map(
+					FileChannel.MapMode.READ_ONLY, offset + 4 * first, 4 * count)
+					.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+
+		return new IntColumn.Paged(pages, rows);
+	}
+
+	/**
+	 * Maps a column of doubles in pages of DoubleColumn.Paged.PAGE_SHIFT rows
+	 */
+	private static DoubleColumn mapDoubles(
+			FileChannel channel,
+			long offset,
+			int rows) throws IOException {
+
+		int pageRows = 1 << DoubleColumn.Paged.PAGE_SHIFT;
+		DoubleBuffer[] pages = new DoubleBuffer[(rows + pageRows - 1) / pageRows];
+		for(int p = 0; p < pages.length; p++) {
+			long first = (long)p * pageRows;
+			long count = Math.min(pageRows, rows - first);
+			pages[p] = channel.map(
+					FileChannel.MapMode.READ_ONLY, offset + 8 * first, 8 * count)
+					.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		}
+
+		return new DoubleColumn.Paged(pages, rows);
+	}
+
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	private static int putInt(
+			FileChannel channel,
+			ByteBuffer buf,
+			int value) throws IOException {
+
+		if(buf.remaining() < 4) flush(channel, buf);
+		buf.putInt(value);
+		return 4;
+	}
+
+	private static void putDouble(
+			FileChannel channel,
+			ByteBuffer buf,
+			double value) throws IOException {
+
+		if(buf.remaining() < 8) flush(channel, buf);
+		buf.putDouble(value);
+	}
+
+	/**
+	 * Pads w/ zeros up to the next multiple of 8 bytes
+	 * @return Number of bytes of padding written
+	 */
+	private static int pad(
+			FileChannel channel,
+			ByteBuffer buf,
+			long position) throws IOException {
+
+		int padding = (int)(align(position) - position);
+		for(int i = 0; i < padding; i++) {
+			if(!buf.hasRemaining()) flush(channel, buf);
+			buf.put((byte)0);
+		}
+		return padding;
+	}
+
+	private static void flush(
+			FileChannel channel,
+			ByteBuffer buf) throws IOException {
+
+		buf.flip();
+		while(buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	private static void readFully(
+			FileChannel channel,
+			ByteBuffer buf,
+			long position) throws IOException {
+
+		while(buf.hasRemaining()) {
+			if(channel.read(buf, position + buf.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package com.dbs.gps.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Follows RaDec files which are still being appended to. Each followed file
+ * has the offset up to which it has been read, & every poll parses only the
+ * complete lines written past that offset, so the cost of a poll depends on
+ * the amount of new data rather than the size of the file. A partly
+ * written last line is left for a later poll.
+ *
+ * <p>If a file shrinks it is assumed to have been truncated or replaced.
+ * Given a set to report such files in, poll leaves them for the caller to
+ * drop the rows read from them before & follow again from the start;
+ * otherwise they're read again from the start.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecFollower {
+
+	/**
+	 * Size of the blocks read when looking for the last newline
+	 */
+	private static final int SCAN_BLOCK_SIZE = 4096;
+
+	/**
+	 * Offset each followed file has been read up to
+	 */
+	private final Map<File, Long> offsets = new LinkedHashMap<File, Long>();
+
+	/**
+	 * Parser for the new lines, keeps running totals of what was read
+	 */
+	private final RaDecParser parser = new RaDecParser();
+
+	/**
+	 * Starts following a file
+	 * @param file RaDec file to follow
+	 * @param offset Offset the file has already been read up to
+	 */
+	public synchronized void follow(File file, long offset) {
+		offsets.put(file, offset);
+	}
+
+	/**
+	 * Stops following a file
+	 * @param file RaDec file to stop following
+	 */
+	public synchronized void unfollow(File file) {
+		offsets.remove(file);
+	}
+
+	/**
+	 * Stops following every file
+	 */
+	public synchronized void clear() {
+		offsets.clear();
+	}
+
+	/**
+	 * @return The files being followed
+	 */
+	public synchronized List<File> getFiles() {
+		return new ArrayList<File>(offsets.keySet());
+	}
+
+	/**
+	 * Reads the lines appended to the followed files since the last poll,
+	 * 	reading a file which has shrunk again from the start
+	 * @param ids Set to add the IDs found in the new rows to, may be null
+	 * @return RaDecTable of the new rows, in file order. Empty if nothing was
+	 * 	appended.
+	 * @throws IOException If a file can't be read
+	 */
+	public RaDecTable poll(Set<Integer> ids) throws IOException {
+		return poll(ids, null);
+	}
+
+	/**
+	 * Reads the lines appended to the followed files since the last poll
+	 * @param ids Set to add the IDs found in the new rows to, may be null
+	 * @param truncated Set to add the files which have shrunk to, which
+	 * 	aren't read & keep their offset until followed again, or null to
+	 * 	read them again from the start
+	 * @return RaDecTable of the new rows, in file order. Empty if nothing was
+	 * 	appended.
+	 * @throws IOException If a file can't be read
+	 */
+	public synchronized RaDecTable poll(
+			Set<Integer> ids,
+			Set<File> truncated) throws IOException {
+
+		RaDecTable rows = new RaDecTable();
+		for(Map.Entry<File, Long> entry : offsets.entrySet()) {
+			File file = entry.getKey();
+			long offset = entry.getValue();
+			long length = file.length();
+			if(length == offset) continue;
+			if(length < offset) {
+				if(truncated != null) {
+					truncated.add(file);
+					continue;
+				}
+				offset = 0;
+			}
+
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				long end = lastLineEnd(channel, offset, channel.size());
+				if(end > offset) {
+					parser.parse(channel, offset, end, rows);
+				}
+				entry.setValue(end);
+			} finally {
+				in.close();
+			}
+		}
+
+		if(ids != null) ids.addAll(RaDec.getIDs(rows));
+		return rows;
+	}
+
+	/**
+	 * Finds the end of the last complete line in [from, to)
+	 * @return Offset just past the last newline, or from if there is none
+	 */
+	static long lastLineEnd(
+			FileChannel channel,
+			long from,
+			long to) throws IOException {
+
+		ByteBuffer buf = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+		long blockEnd = to;
+		while(blockEnd > from) {
+			long blockStart = Math.max(from, blockEnd - SCAN_BLOCK_SIZE);
+			buf.clear();
+			buf.limit((int)(blockEnd - blockStart));
+			while(buf.hasRemaining()) {
+				if(channel.read(buf, blockStart + buf.position()) < 0) break;
+			}
+			for(int i = buf.position() - 1; i >= 0; i--) {
+				if(buf.get(i) == '\n') return blockStart + i + 1;
+			}
+			blockEnd = blockStart;
+		}
+
+		return from;
+	}
+
+	/**
+	 * @return Parser used for the new lines, w/ its running totals
+	 */
+	public RaDecParser getParser() {
+		return parser;
+	}
+}
@@ -0,0 +1,635 @@
+package com.dbs.gps.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes synthetic RaDec files of any size for scale & stress testing, in the
+ * same "time id ra dec" format as radec.txt. Each object follows an ellipse
+ * about a slowly drifting center, sampled at a fixed interval w/ a little
+ * noise, & may go quiet for a while in gaps. Rows can be written grouped by
+ * ID in time order, as radec.txt is, or in time order across objects, as a
+ * live feed is, & a share of them can be written out of order or more than
+ * once, some of the duplicates w/ a different position.
+ *
+ * <p>Output is deterministic for a given seed & settings; each object draws
+ * from a random stream of its own, so objects trace the same tracks in
+ * either order. Rows are formatted straight into a byte buffer as they are
+ * made & nothing is kept per row, so files of billions of rows are streamed
+ * in constant memory at close to disk speed.</p>
+ *
+ * <p>Usage: RaDecGenerator [output file, or - for stdout] [objects]
+ * [duration] [seed] [setting=value...]
+ * <br>w/ settings interval, gapRate, gapLength, outOfOrderRate,
+ * outOfOrderWindow, duplicateRate, conflictRate, firstId, startTime,
+ * decimals & order (BY_ID or BY_TIME). Rows written come to about objects x
+ * duration / interval.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecGenerator {
+
+	/**
+	 * Order to write rows in
+	 */
+	public enum Order {
+
+		/**
+		 * Each ID's rows in time order, one ID after another
+		 */
+		BY_ID,
+
+		/**
+		 * Every object's row at a time, one time after another
+		 */
+		BY_TIME
+	}
+
+	/**
+	 * Size of the output buffer
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Most bytes a row can take, a buffer w/ less room left is flushed
+	 */
+	private static final int MAX_ROW_BYTES = 96;
+
+	/**
+	 * ASCII of the two digits of each number from 0 to 99, to format two
+	 * 	digits per division
+	 */
+	private static final byte[] DIGIT_PAIRS = new byte[200];
+	static {
+		for(int i = 0; i < 100; i++) {
+			DIGIT_PAIRS[2 * i] = (byte)('0' + i / 10);
+			DIGIT_PAIRS[2 * i + 1] = (byte)('0' + i % 10);
+		}
+	}
+
+	private final long seed;
+
+	private int objects = 25;
+	private int firstId = 902;
+	private int startTime = 0;
+	private int duration = 8640;
+	private int interval = 1;
+	private double gapRate = 0.001;
+	private int gapLength = 50;
+	private double outOfOrderRate = 0;
+	private int outOfOrderWindow = 16;
+	private double duplicateRate = 0;
+	private double conflictRate = 0.1;
+	private int decimals = 12;
+	private Order order = Order.BY_ID;
+
+	/**
+	 * Random stream for out of order rows & duplicates
+	 */
+	private long shuffleState;
+
+	/**
+	 * Rows held back to be written later, out of order or as duplicates,
+	 * 	& the rows still to be written before each
+	 */
+	private int[] heldTime;
+	private int[] heldId;
+	private double[] heldRa;
+	private double[] heldDec;
+	private int[] heldDelay;
+	private int held;
+
+	private OutputStream out;
+	private byte[] buffer;
+	private int position;
+	private long scale;
+
+	/**
+	 * Totals of the last generate
+	 */
+	private long rowsWritten = 0;
+	private long bytesWritten = 0;
+	private long duplicatesWritten = 0;
+	private long rowsDelayed = 0;
+	private long samplesSkipped = 0;
+	private long elapsedNanos = 0;
+
+	/**
+	 * @param seed Seed of the random streams, the same seed & settings give
+	 * 	the same output
+	 */
+	public RaDecGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Writes the rows to a file
+	 * @param file File to write, replaced if it exists
+	 * @return Number of rows written
+	 * @throws IOException If the file can't be written
+	 */
+	public long generate(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			return generate(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the rows to a stream, which is flushed but not closed
+	 * @param out Stream to write to
+	 * @return Number of rows written
+	 * @throws IOException If the stream can't be written
+	 */
+	public long generate(OutputStream out) throws IOException {
+		long began = System.nanoTime();
+		this.out = out;
+		buffer = new byte[BUFFER_SIZE];
+		position = 0;
+		scale = 1;
+		for(int d = 0; d < decimals; d++) {
+			scale *= 10;
+		}
+		int window = Math.max(1, outOfOrderWindow);
+		heldTime = new int[window];
+		heldId = new int[window];
+		heldRa = new double[window];
+		heldDec = new double[window];
+		heldDelay = new int[window];
+		held = 0;
+		shuffleState = mix(seed ^ 0x5DEECE66DL);
+		rowsWritten = bytesWritten = duplicatesWritten = 0;
+		rowsDelayed = samplesSkipped = 0;
+
+		int samples = Math.max(0, (duration + interval - 1) / interval);
+		if(order == Order.BY_ID) {
+			for(int object = 0; object < objects; object++) {
+				Track track = new Track(object);
+				for(int sample = 0; sample < samples; sample++) {
+					track.sample(startTime + sample * interval);
+				}
+			}
+		} else {
+			Track[] tracks = new Track[objects];
+			for(int object = 0; object < objects; object++) {
+				tracks[object] = new Track(object);
+			}
+			for(int sample = 0; sample < samples; sample++) {
+				int time = startTime + sample * interval;
+				for(Track track : tracks) {
+					track.sample(time);
+				}
+			}
+		}
+
+		// the rows still held go out in the order they were held
+		while(held > 0) {
+			write(heldTime[0], heldId[0], heldRa[0], heldDec[0]);
+			release(0);
+		}
+		flush();
+		out.flush();
+		this.out = null;
+		buffer = null;
+		elapsedNanos = System.nanoTime() - began;
+
+		return rowsWritten;
+	}
+
+	/**
+	 * Writes a row made by a track, holding it or a copy of it back when
+	 * 	it is picked to be out of order or duplicated
+	 */
+	private void row(int time, int id, double ra, double dec) throws IOException {
+		if(outOfOrderRate > 0 && held < heldDelay.length &&
+				nextDouble() < outOfOrderRate) {
+			hold(time, id, ra, dec);
+			rowsDelayed++;
+		} else {
+			write(time, id, ra, dec);
+			pass();
+		}
+
+		if(duplicateRate > 0 && nextDouble() < duplicateRate) {
+			if(conflictRate > 0 && nextDouble() < conflictRate) {
+				ra += (nextDouble() - 0.5) * 1e-3;
+				dec += (nextDouble() - 0.5) * 1e-3;
+			}
+			if(held < heldDelay.length) {
+				hold(time, id, ra, dec);
+			} else {
+				write(time, id, ra, dec);
+			}
+			duplicatesWritten++;
+		}
+	}
+
+	private void hold(int time, int id, double ra, double dec) {
+		heldTime[held] = time;
+		heldId[held] = id;
+		heldRa[held] = ra;
+		heldDec[held] = dec;
+		heldDelay[held] = 1 + (int)(nextDouble() * heldDelay.length);
+		held++;
+	}
+
+	/**
+	 * Counts down the held rows after a row is written, writing those whose
+	 * 	time has come
+	 */
+	private void pass() throws IOException {
+		for(int i = 0; i < held; i++) {
+			if(--heldDelay[i] > 0) continue;
+			write(heldTime[i], heldId[i], heldRa[i], heldDec[i]);
+			release(i--);
+		}
+	}
+
+	/**
+	 * Drops a held row, keeping the rest in the order they were held
+	 */
+	private void release(int i) {
+		held--;
+		System.arraycopy(heldTime, i + 1, heldTime, i, held - i);
+		System.arraycopy(heldId, i + 1, heldId, i, held - i);
+		System.arraycopy(heldRa, i + 1, heldRa, i, held - i);
+		System.arraycopy(heldDec, i + 1, heldDec, i, held - i);
+		System.arraycopy(heldDelay, i + 1, heldDelay, i, held - i);
+	}
+
+	private void write(int time, int id, double ra, double dec) throws IOException {
+		if(position > buffer.length - MAX_ROW_BYTES) flush();
+		appendInt(time);
+		buffer[position++] = '\t';
+		appendInt(id);
+		buffer[position++] = '\t';
+		appendFixed(ra);
+		buffer[position++] = '\t';
+		appendFixed(dec);
+		buffer[position++] = '\n';
+		rowsWritten++;
+	}
+
+	private void flush() throws IOException {
+		out.write(buffer, 0, position);
+		bytesWritten += position;
+		position = 0;
+	}
+
+	private void appendInt(long value) {
+		if(value < 0) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+		int length = 1;
+		for(long rest = value / 10; rest != 0; rest /= 10) {
+			length++;
+		}
+		appendDigits(value, length);
+	}
+
+	/**
+	 * Writes a value to a fixed number of decimals
+	 */
+	private void appendFixed(double value) {
+		if(value < 0) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+		long scaled = Math.round(value * scale);
+		appendInt(scaled / scale);
+		if(decimals == 0) return;
+
+		buffer[position++] = '.';
+		appendDigits(scaled % scale, decimals);
+	}
+
+	/**
+	 * Writes the last given number of digits of a value, w/ leading zeros
+	 */
+	private void appendDigits(long value, int length) {
+		int i = position + length;
+		// while the value is past an int, split off 8 digits at a time
+		while(value > Integer.MAX_VALUE) {
+			long high = value / 100000000;
+			int low = (int)(value - high * 100000000);
+			for(int pair = 0; pair < 4; pair++) {
+				int rest = low / 100;
+				int digits = 2 * (low - rest * 100);
+				buffer[--i] = DIGIT_PAIRS[digits + 1];
+				buffer[--i] = DIGIT_PAIRS[digits];
+				low = rest;
+			}
+			value = high;
+		}
+		int rest = (int)value;
+		while(i >= position + 2) {
+			int next = rest / 100;
+			int digits = 2 * (rest - next * 100);
+			buffer[--i] = DIGIT_PAIRS[digits + 1];
+			buffer[--i] = DIGIT_PAIRS[digits];
+			rest = next;
+		}
+		if(i > position) buffer[--i] = (byte)('0' + rest % 10);
+		position += length;
+	}
+
+	/**
+	 * Steps a splitmix64 state
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private double nextDouble() {
+		shuffleState += 0x9E3779B97F4A7C15L;
+		return (mix(shuffleState) >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * One object's track: an ellipse traced at a steady rate, the angle kept
+	 * 	as a cosine & sine stepped by a fixed rotation, so no sample costs a
+	 * 	trig call
+	 */
+	private final class Track {
+		private final int id;
+		private long state;
+
+		private double centerRa;
+		private double centerDec;
+		private final double axisRa;
+		private final double axisDec;
+		private final double drift;
+		private final double noise;
+
+		private double cos;
+		private double sin;
+		private final double stepCos;
+		private final double stepSin;
+
+		/**
+		 * Samples left in the gap the track is in, 0 if not in one
+		 */
+		private int gap = 0;
+
+		Track(int object) {
+			id = firstId + object;
+			state = mix(seed + 0x632BE59BD9B4E019L * (object + 1));
+			centerRa = (nextDouble() - 0.5) * 16;
+			centerDec = (nextDouble() - 0.5) * 16;
+			axisRa = 2 + nextDouble() * 7;
+			axisDec = 2 + nextDouble() * 7;
+			drift = nextDouble() * 1e-3;
+			noise = nextDouble() * 1e-2;
+			double phase = nextDouble() * 2 * Math.PI;
+			cos = Math.cos(phase);
+			sin = Math.sin(phase);
+			// one turn every 200 to 2,000 time units, either way round
+			double step = 2 * Math.PI * interval / (200 + nextDouble() * 1800);
+			if(nextDouble() < 0.5) step = -step;
+			stepCos = Math.cos(step);
+			stepSin = Math.sin(step);
+		}
+
+		/**
+		 * Moves the track on a sample & writes its row, unless in a gap
+		 */
+		void sample(int time) throws IOException {
+			double c = cos * stepCos - sin * stepSin;
+			double s = sin * stepCos + cos * stepSin;
+			// pull back onto the unit circle, against rounding error building up
+			double k = (3 - (c * c + s * s)) / 2;
+			cos = c * k;
+			sin = s * k;
+			centerRa += (nextDouble() - 0.5) * drift;
+			centerDec += (nextDouble() - 0.5) * drift;
+
+			if(gap > 0) {
+				gap--;
+				samplesSkipped++;
+				return;
+			}
+			if(gapRate > 0 && nextDouble() < gapRate) {
+				gap = 1 + (int)(nextDouble() * 2 * gapLength);
+			}
+
+			row(time, id,
+					centerRa + axisRa * cos + (nextDouble() - 0.5) * noise,
+					centerDec + axisDec * sin + (nextDouble() - 0.5) * noise);
+		}
+
+		private double nextDouble() {
+			state += 0x9E3779B97F4A7C15L;
+			return (mix(state) >>> 11) * 0x1.0p-53;
+		}
+	}
+
+	/**
+	 * @param objects Number of objects, each w/ an ID of its own
+	 */
+	public void setObjects(int objects) {
+		this.objects = Math.max(0, objects);
+	}
+
+	/**
+	 * @param firstId ID of the first object, the rest following on
+	 */
+	public void setFirstId(int firstId) {
+		this.firstId = firstId;
+	}
+
+	/**
+	 * @param startTime Time of the first sample
+	 */
+	public void setStartTime(int startTime) {
+		this.startTime = startTime;
+	}
+
+	/**
+	 * @param duration Span of time sampled
+	 */
+	public void setDuration(int duration) {
+		this.duration = Math.max(0, duration);
+	}
+
+	/**
+	 * @param interval Time between an object's samples
+	 */
+	public void setInterval(int interval) {
+		this.interval = Math.max(1, interval);
+	}
+
+	/**
+	 * @param gapRate Chance, per sample, of an object going quiet
+	 */
+	public void setGapRate(double gapRate) {
+		this.gapRate = gapRate;
+	}
+
+	/**
+	 * @param gapLength Mean samples an object stays quiet for
+	 */
+	public void setGapLength(int gapLength) {
+		this.gapLength = Math.max(1, gapLength);
+	}
+
+	/**
+	 * @param outOfOrderRate Share of rows written late, after up to the out
+	 * 	of order window of later rows
+	 */
+	public void setOutOfOrderRate(double outOfOrderRate) {
+		this.outOfOrderRate = outOfOrderRate;
+	}
+
+	/**
+	 * @param outOfOrderWindow Most rows a late row or duplicate is written
+	 * 	after its place, & most rows held back at once
+	 */
+	public void setOutOfOrderWindow(int outOfOrderWindow) {
+		this.outOfOrderWindow = Math.max(1, outOfOrderWindow);
+	}
+
+	/**
+	 * @param duplicateRate Share of rows written a second time
+	 */
+	public void setDuplicateRate(double duplicateRate) {
+		this.duplicateRate = duplicateRate;
+	}
+
+	/**
+	 * @param conflictRate Share of duplicates w/ a slightly different
+	 * 	position
+	 */
+	public void setConflictRate(double conflictRate) {
+		this.conflictRate = conflictRate;
+	}
+
+	/**
+	 * @param decimals Decimal places the positions are written to
+	 */
+	public void setDecimals(int decimals) {
+		this.decimals = Math.min(15, Math.max(0, decimals));
+	}
+
+	/**
+	 * @param order Order to write rows in
+	 */
+	public void setOrder(Order order) {
+		this.order = order;
+	}
+
+	/**
+	 * @return Rows written by the last generate, duplicates included
+	 */
+	public long getRowsWritten() {
+		return rowsWritten;
+	}
+
+	/**
+	 * @return Bytes written by the last generate
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return Duplicate rows written by the last generate
+	 */
+	public long getDuplicatesWritten() {
+		return duplicatesWritten;
+	}
+
+	/**
+	 * @return Rows written out of order by the last generate
+	 */
+	public long getRowsDelayed() {
+		return rowsDelayed;
+	}
+
+	/**
+	 * @return Samples skipped in gaps by the last generate
+	 */
+	public long getSamplesSkipped() {
+		return samplesSkipped;
+	}
+
+	/**
+	 * @return Wall clock time the last generate took in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		double seconds = elapsedNanos / 1e9;
+		return String.format("RaDecGenerator: %,d rows (%,d duplicates, " +
+				"%,d out of order, %,d samples in gaps), %.1f MB in %.1f s, " +
+				"%.1f MB/s, %,.0f rows/s",
+				rowsWritten, duplicatesWritten, rowsDelayed, samplesSkipped,
+				bytesWritten / (1024.0 * 1024.0), seconds,
+				bytesWritten / (1024.0 * 1024.0) / seconds,
+				rowsWritten / seconds);
+	}
+
+	public static void main(String[] args) {
+		if(args.length < 4) {
+			System.out.println("Usage: RaDecGenerator [output file, or - for stdout] " +
+					"[objects] [duration] [seed] [setting=value...]");
+			System.exit(2);
+		}
+
+		RaDecGenerator generator = new RaDecGenerator(Long.parseLong(args[3]));
+		generator.setObjects(Integer.parseInt(args[1]));
+		generator.setDuration(Integer.parseInt(args[2]));
+		for(int i = 4; i < args.length; i++) {
+			String[] setting = args[i].split("=", 2);
+			String value = setting.length > 1 ? setting[1] : "";
+			if(setting[0].equals("interval")) {
+				generator.setInterval(Integer.parseInt(value));
+			} else if(setting[0].equals("gapRate")) {
+				generator.setGapRate(Double.parseDouble(value));
+			} else if(setting[0].equals("gapLength")) {
+				generator.setGapLength(Integer.parseInt(value));
+			} else if(setting[0].equals("outOfOrderRate")) {
+				generator.setOutOfOrderRate(Double.parseDouble(value));
+			} else if(setting[0].equals("outOfOrderWindow")) {
+				generator.setOutOfOrderWindow(Integer.parseInt(value));
+			} else if(setting[0].equals("duplicateRate")) {
+				generator.setDuplicateRate(Double.parseDouble(value));
+			} else if(setting[0].equals("conflictRate")) {
+				generator.setConflictRate(Double.parseDouble(value));
+			} else if(setting[0].equals("firstId")) {
+				generator.setFirstId(Integer.parseInt(value));
+			} else if(setting[0].equals("startTime")) {
+				generator.setStartTime(Integer.parseInt(value));
+			} else if(setting[0].equals("decimals")) {
+				generator.setDecimals(Integer.parseInt(value));
+			} else if(setting[0].equals("order")) {
+				generator.setOrder(Order.valueOf(value));
+			} else {
+				System.out.println("Unknown setting " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		try {
+			if(args[0].equals("-")) {
+				generator.generate(System.out);
+				System.err.println(generator);
+			} else {
+				generator.generate(new File(args[0]));
+				System.out.println(generator);
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,527 @@
+package com.dbs.gps.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.dbs.gps.perf.Instrumentation;
+
+/**
+ * Loads RaDec files in parallel. Each file is split into newline aligned
+ * chunks & the chunks of the files are parsed on a pool of worker threads,
+ * a bounded number ahead, each into a RaDecTable of its own. Chunks are
+ * handed on in file & chunk order as soon as they're done, or merged into
+ * the target table in a single pass along with the IDs & time range found
+ * by each chunk.
+ *
+ * <p>When caching is on, a file w/ a valid RaDecCache sidecar is mapped from
+ * the cache instead of being parsed, & a file without one has its sidecar
+ * written from its chunks on a thread of its own once the last of them has
+ * been handed on, while the next file's chunks carry on. The load returns
+ * once the caches are written. A cache which can't be written, e.g. in a
+ * read only directory, doesn't fail the load but is counted in
+ * getCacheFailures.</p>
+ *
+ * <p>A loader set to load whole lines only stops each file at its last
+ * newline, so a line still being written when the file is loaded isn't
+ * stored cut short. The length reported for the file is then that of its
+ * whole lines, for a RaDecFollower to carry on from & read the line once
+ * it's complete. A file loaded short of its end gets no cache.</p>
+ *
+ * <p>Like RaDecParser, a loader keeps running counters of what it has loaded
+ * across calls.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecLoader {
+
+	/**
+	 * Default size of the chunks files are split into
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 32L << 20;
+
+	/**
+	 * Rough number of bytes per row, used to size tables up front
+	 */
+	public static final int BYTES_PER_ROW_ESTIMATE = 40;
+
+	/**
+	 * Chunks per thread parsed ahead of the one the listener waits on, which
+	 * 	bounds the parsed rows held at once
+	 */
+	private static final int PARSE_AHEAD = 2;
+
+	/**
+	 * Number of threads to parse with
+	 */
+	private final int threads;
+
+	/**
+	 * Size of the chunks files are split into
+	 */
+	private final long chunkSize;
+
+	/**
+	 * Whether to read & write RaDecCache sidecars
+	 */
+	private boolean useCache = true;
+
+	/**
+	 * Whether to leave out a last line w/o a newline
+	 */
+	private boolean wholeLinesOnly = false;
+
+	/**
+	 * Total files read from their cache
+	 */
+	private int filesCached = 0;
+
+	/**
+	 * Total caches which couldn't be written
+	 */
+	private int cacheFailures = 0;
+
+	/**
+	 * Total bytes parsed
+	 */
+	private long bytesRead = 0;
+
+	/**
+	 * Total rows loaded
+	 */
+	private long rowsRead = 0;
+
+	/**
+	 * Total wall clock time spent loading in nanoseconds
+	 */
+	private long elapsedNanos = 0;
+
+	/**
+	 * Creates a loader w/ a thread per available processor
+	 */
+	public RaDecLoader() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param threads Number of threads to parse with
+	 * @param chunkSize Size in bytes of the chunks files are split into
+	 */
+	public RaDecLoader(int threads, long chunkSize) {
+		this.threads = Math.max(threads, 1);
+		this.chunkSize = Math.max(chunkSize, 1);
+	}
+
+	/**
+	 * Loads the given files into the given table
+	 * @param files RaDec files to load
+	 * @param table RaDecTable to append rows to, in file order
+	 * @param ids Set to add the IDs found in the files to, may be null
+	 * @return The given table
+	 * @throws IOException If any of the files can't be read
+	 */
+	public RaDecTable load(
+			Collection<File> files,
+			RaDecTable table,
+			final Set<Integer> ids) throws IOException {
+
+		final List<RaDecTable> parts = new ArrayList<RaDecTable>();
+		load(files, new Listener() {
+			@Override
+			public void chunkLoaded(
+					RaDecTable chunk,
+					Set<Integer> chunkIds,
+					long bytes) {
+				parts.add(chunk);
+				if(ids != null) ids.addAll(chunkIds);
+			}
+
+			@Override
+			public void fileLoaded(File file, long length) {}
+		});
+
+		long rows = 0;
+		for(RaDecTable part : parts) {
+			rows += part.size();
+		}
+		if(table.size() + rows > Integer.MAX_VALUE - 8) {
+			throw new IOException("Too many rows to load: " + rows);
+		}
+
+		// a lone cached file is shared as is by an empty table
+		if(!table.isEmpty() || parts.size() > 1) {
+			table.ensureCapacity((int)(table.size() + rows));
+		}
+		for(RaDecTable part : parts) {
+			table.addAll(part);
+		}
+
+		return table;
+	}
+
+	/**
+	 * Loads the given files, handing each chunk to the listener as soon as it
+	 * 	& every chunk before it are done. Chunks are parsed ahead in
+	 * 	parallel, at most PARSE_AHEAD per thread past the one awaited, but
+	 * 	the listener is called on the calling thread in file & chunk order.
+	 * 	Interrupting the calling thread abandons the load w/ an
+	 * 	InterruptedIOException.
+	 * @param files RaDec files to load
+	 * @param listener Listener to hand chunks to
+	 * @throws IOException If any of the files can't be read
+	 */
+	public void load(
+			Collection<File> files,
+			Listener listener) throws IOException {
+
+		long began = System.nanoTime();
+		long rowsBefore = rowsRead;
+		long loaded = 0;
+		List<FileInputStream> streams = new ArrayList<FileInputStream>();
+		List<Source> sources = new ArrayList<Source>();
+		List<Future<Boolean>> cacheWrites = new ArrayList<Future<Boolean>>();
+		ExecutorService pool = newPool(threads, "RaDecLoader");
+		ExecutorService writer = useCache ? newPool(1, "RaDecCache") : null;
+
+		try {
+			// every chunk to parse, in file & chunk order
+			List<Task> tasks = new ArrayList<Task>();
+			for(File file : files) {
+				Source source = new Source(file);
+				sources.add(source);
+				if(useCache) {
+					Set<Integer> cachedIds = new TreeSet<Integer>();
+					RaDecTable cached = RaDecCache.open(file, cachedIds);
+					if(cached != null) {
+						source.chunks.add(
+								new Chunk(cached, cachedIds, 0, source.length));
+						source.loadedLength = source.length;
+						source.cached = true;
+						filesCached++;
+						continue;
+					}
+				}
+
+				FileInputStream in = new FileInputStream(file);
+				streams.add(in);
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				if(wholeLinesOnly) {
+					size = RaDecFollower.lastLineEnd(channel, 0, size);
+				}
+				source.loadedLength = size;
+				for(long start = 0; start < size; start += chunkSize) {
+					Task task = new Task(
+							channel, start, Math.min(size, start + chunkSize));
+					source.tasks.add(task);
+					tasks.add(task);
+				}
+			}
+
+			int submitted = 0;
+			int awaited = 0;
+			int ahead = threads * PARSE_AHEAD;
+			for(Source source : sources) {
+				for(Task task : source.tasks) {
+					while(submitted < tasks.size() &&
+							submitted <= awaited + ahead) {
+						tasks.get(submitted++).submit(pool);
+					}
+					Chunk chunk = get(task.future);
+					task.future = null;
+					awaited++;
+					// kept for the cache, which is written from them once
+					// the file is done
+					if(useCache) source.chunks.add(chunk);
+					listener.chunkLoaded(chunk.table, chunk.ids, chunk.span);
+					rowsRead += chunk.table.size();
+					bytesRead += chunk.bytesRead;
+					loaded += chunk.span;
+				}
+				if(source.cached) {
+					Chunk chunk = source.chunks.get(0);
+					listener.chunkLoaded(chunk.table, chunk.ids, chunk.span);
+					rowsRead += chunk.table.size();
+					loaded += chunk.span;
+				} else if(useCache && !source.tasks.isEmpty() &&
+						source.loadedLength == source.length) {
+					// written behind the next file's chunks rather than
+					// holding them back
+					final Source written = source;
+					final List<Chunk> chunks = new ArrayList<Chunk>(source.chunks);
+					cacheWrites.add(writer.submit(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							return written.writeCache(chunks);
+						}
+					}));
+				}
+				source.chunks.clear();
+				listener.fileLoaded(source.file, source.loadedLength);
+			}
+			for(Future<Boolean> write : cacheWrites) {
+				if(!get(write)) cacheFailures++;
+			}
+		} finally {
+			pool.shutdownNow();
+			if(writer != null) writer.shutdownNow();
+			for(FileInputStream in : streams) {
+				try { in.close(); } catch (IOException e) {}
+			}
+			elapsedNanos += System.nanoTime() - began;
+			Instrumentation.addBytesRead(loaded);
+			Instrumentation.record(
+					Instrumentation.LOAD, began, rowsRead - rowsBefore);
+		}
+	}
+
+	/**
+	 * @return A pool of the given number of daemon threads
+	 */
+	private static ExecutorService newPool(int threads, final String name) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Parses one chunk of a file into a table of its own
+	 */
+	private static Chunk parseChunk(
+			FileChannel channel,
+			long start,
+			long end) throws IOException {
+
+		RaDecParser parser = new RaDecParser();
+		RaDecTable table = new RaDecTable(
+				(int)Math.min(Integer.MAX_VALUE - 8,
+						(end - start) / BYTES_PER_ROW_ESTIMATE + 1));
+		parser.parse(channel, start, end, table);
+
+		return new Chunk(
+				table, RaDec.getIDs(table), parser.getBytesRead(), end - start);
+	}
+
+	/**
+	 * Waits for a task, unwrapping any failure into an IOException
+	 */
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading");
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return Whether RaDecCache sidecars are read & written
+	 */
+	public boolean isUseCache() {
+		return useCache;
+	}
+
+	/**
+	 * @param useCache Whether to read & write RaDecCache sidecars
+	 */
+	public void setUseCache(boolean useCache) {
+		this.useCache = useCache;
+	}
+
+	/**
+	 * @return Whether a last line w/o a newline is left out
+	 */
+	public boolean isWholeLinesOnly() {
+		return wholeLinesOnly;
+	}
+
+	/**
+	 * @param wholeLinesOnly Whether to leave out a last line w/o a newline,
+	 * 	as for files which will be followed
+	 */
+	public void setWholeLinesOnly(boolean wholeLinesOnly) {
+		this.wholeLinesOnly = wholeLinesOnly;
+	}
+
+	/**
+	 * @return Total files read from their cache
+	 */
+	public int getFilesCached() {
+		return filesCached;
+	}
+
+	/**
+	 * @return Total caches which couldn't be written
+	 */
+	public int getCacheFailures() {
+		return cacheFailures;
+	}
+
+	/**
+	 * @return Total bytes parsed
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return Total rows loaded
+	 */
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	/**
+	 * @return Total wall clock time spent loading in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		double seconds = elapsedNanos / 1e9;
+		double megabytes = bytesRead / (1024.0 * 1024.0);
+		return String.format(
+				"%d rows (%d files cached, %d caches not written), " +
+				"%.1f MB in %.1f ms on %d threads: %.1f MB/s, %.0f rows/s",
+				rowsRead,
+				filesCached,
+				cacheFailures,
+				megabytes,
+				elapsedNanos / 1e6,
+				threads,
+				seconds == 0 ? 0 : megabytes / seconds,
+				seconds == 0 ? 0 : rowsRead / seconds);
+	}
+
+	/**
+	 * A file being loaded, along w/ its chunks
+	 */
+	private static class Source {
+		final File file;
+		final long length;
+		final long lastModified;
+		final List<Task> tasks = new ArrayList<Task>();
+		final List<Chunk> chunks = new ArrayList<Chunk>();
+		long loadedLength = 0;
+		boolean cached = false;
+
+		Source(File file) {
+			this.file = file;
+			// taken before parsing, so a file changed mid load gets no cache
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+		}
+
+		/**
+		 * Writes the sidecar cache of the parsed chunks
+		 * @param chunks Chunks of the file, in order
+		 * @return false if the cache couldn't be written
+		 */
+		boolean writeCache(List<Chunk> chunks) {
+			List<RaDecTable> parts = new ArrayList<RaDecTable>();
+			Set<Integer> ids = new TreeSet<Integer>();
+			for(Chunk chunk : chunks) {
+				parts.add(chunk.table);
+				ids.addAll(chunk.ids);
+			}
+
+			try {
+				RaDecCache.write(file, length, lastModified, parts, ids);
+				return true;
+			} catch(IOException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * A chunk of a file to parse, & its result once submitted
+	 */
+	private static class Task {
+		final FileChannel channel;
+		final long start;
+		final long end;
+		Future<Chunk> future = null;
+
+		Task(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		void submit(ExecutorService pool) {
+			future = pool.submit(new Callable<Chunk>() {
+				@Override
+				public Chunk call() throws IOException {
+					return parseChunk(channel, start, end);
+				}
+			});
+		}
+	}
+
+	/**
+	 * The result of parsing one chunk
+	 */
+	private static class Chunk {
+		final RaDecTable table;
+		final Set<Integer> ids;
+		final long bytesRead;
+		final long span;
+
+		Chunk(RaDecTable table, Set<Integer> ids, long bytesRead, long span) {
+			this.table = table;
+			this.ids = ids;
+			this.bytesRead = bytesRead;
+			this.span = span;
+		}
+	}
+
+	/**
+	 * Receives the chunks of a load as they become available
+	 */
+	public interface Listener {
+
+		/**
+		 * Called once per chunk, in file & chunk order
+		 * @param chunk Rows of the chunk, which the listener may keep & read
+		 * 	but mustn't change, as the file's cache may be written from it.
+		 * 	Read only if it came from a cache.
+		 * @param ids IDs found in the chunk
+		 * @param bytes Number of bytes of the source files the chunk covers
+		 */
+		void chunkLoaded(RaDecTable chunk, Set<Integer> ids, long bytes);
+
+		/**
+		 * Called after the last chunk of each file
+		 * @param file The file
+		 * @param length Length of the file the chunks cover, which is where
+		 * 	a RaDecFollower of the file should carry on from
+		 */
+		void fileLoaded(File file, long length);
+	}
+}
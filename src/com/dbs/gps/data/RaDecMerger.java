@@ -0,0 +1,342 @@
+package com.dbs.gps.data;
+
+import java.util.Arrays;
+
+/**
+ * Appends rows to a RaDecTable, skipping rows whose (time, id) is already in
+ * it, so loading overlapping files doesn't double the rows. The rows of the
+ * table are found by key through an open addressing hash of row numbers,
+ * w/ linear probing & keys read back from the table's columns, so the only
+ * memory it takes is an int per slot & no object is made per row.
+ *
+ * <p>A duplicate whose position differs from the row already in the table
+ * is a conflict, settled by the merger's Policy. Rows appended to the table
+ * by other means are taken into the hash before each merge; if the table
+ * is cleared the hash starts over.</p>
+ *
+ * <p>Taking a large table into the hash takes a while, so a caller w/ a
+ * time budget, such as the EDT, can catch the hash up in slices w/
+ * catchUp(deadline) before merging, & size it up front for the rows it
+ * expects w/ expect, which saves growing it mid merge.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecMerger {
+
+	/**
+	 * How to settle a duplicate w/ a different position
+	 */
+	public enum Policy {
+
+		/**
+		 * Keep the row already in the table
+		 */
+		FIRST_WINS,
+
+		/**
+		 * Move the row already in the table to the new position
+		 */
+		LAST_WINS,
+
+		/**
+		 * Keep the row already in the table & note it as mismatched
+		 */
+		FLAG_MISMATCHES
+	}
+
+	/**
+	 * Most slots in use before the hash grows, as a fraction of its size
+	 */
+	private static final double LOAD_FACTOR = 0.75;
+
+	/**
+	 * Rows taken into the hash between checks of the deadline
+	 */
+	private static final int CATCH_UP_STEP = 4096;
+
+	/**
+	 * Table rows are merged into
+	 */
+	private final RaDecTable target;
+
+	private final Policy policy;
+
+	/**
+	 * Row number + 1 of the row in each slot, 0 for an empty slot
+	 */
+	private int[] slots = new int[1024];
+
+	/**
+	 * Number of slots in use
+	 */
+	private int used = 0;
+
+	/**
+	 * Number of rows of the target taken into the hash
+	 */
+	private int indexed = 0;
+
+	/**
+	 * Mod count of the target when last merged into, a clear restarts the hash
+	 */
+	private int modCount;
+
+	/**
+	 * Rows found in the table already
+	 */
+	private long duplicates = 0;
+
+	/**
+	 * Duplicates w/ a different position
+	 */
+	private long conflicts = 0;
+
+	/**
+	 * Rows of the target noted as mismatched, once per conflict
+	 */
+	private int[] mismatched = new int[16];
+	private int mismatchedCount = 0;
+
+	/**
+	 * Source rows pending a copy to the target, see addAll
+	 */
+	private RaDecTable source;
+	private int runStart;
+
+	/**
+	 * @param target Table to merge rows into
+	 * @param policy How to settle a duplicate w/ a different position
+	 */
+	public RaDecMerger(RaDecTable target, Policy policy) {
+		this.target = target;
+		this.policy = policy;
+		this.modCount = target.getModCount();
+	}
+
+	/**
+	 * @return How a duplicate w/ a different position is settled
+	 */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Appends all the rows of another table which aren't already in the target
+	 * @param other Table to copy from
+	 * @return Number of rows appended
+	 */
+	public int addAll(RaDecTable other) {
+		return addAll(other, 0, other.size());
+	}
+
+	/**
+	 * Appends the rows of a range of another table which aren't already in
+	 * 	the target, nor earlier in the range
+	 * @param other Table to copy from
+	 * @param from Index of the first row to merge
+	 * @param length Number of rows to merge
+	 * @return Number of rows appended
+	 */
+	public synchronized int addAll(RaDecTable other, int from, int length) {
+		catchUp(Long.MAX_VALUE);
+		int before = target.size();
+
+		// rows go in the hash as they are seen, but are copied in runs; a row
+		// of the current run, numbered past the end of the target, is read
+		// from the source until the run is flushed
+		source = other;
+		runStart = from;
+		for(int row = from; row < from + length; row++) {
+			int time = other.getTime(row);
+			int id = other.getId(row);
+			int slot = find(time, id);
+			if(slots[slot] == 0) {
+				slots[slot] = target.size() + (row - runStart) + 1;
+				if(++used > slots.length * LOAD_FACTOR) {
+					flush(row + 1);
+					grow();
+				}
+				continue;
+			}
+
+			flush(row);
+			runStart = row + 1;
+			duplicate(slots[slot] - 1, other, row);
+		}
+		flush(from + length);
+		source = null;
+		indexed = target.size();
+
+		return target.size() - before;
+	}
+
+	/**
+	 * Copies the pending run of source rows, up to end, to the target
+	 */
+	private void flush(int end) {
+		if(end > runStart) target.addAll(source, runStart, end - runStart);
+		runStart = end;
+	}
+
+	/**
+	 * Settles a row of the source found to be a duplicate of a target row
+	 */
+	private void duplicate(int existing, RaDecTable other, int row) {
+		duplicates++;
+		double rightAscension = other.getRightAscension(row);
+		double declination = other.getDeclination(row);
+		if(target.getRightAscension(existing) == rightAscension &&
+				target.getDeclination(existing) == declination) {
+			return;
+		}
+
+		conflicts++;
+		if(policy == Policy.LAST_WINS) {
+			target.setPosition(existing, rightAscension, declination);
+			modCount = target.getModCount();
+		} else if(policy == Policy.FLAG_MISMATCHES) {
+			flag(existing);
+		}
+	}
+
+	private void flag(int row) {
+		if(mismatchedCount == mismatched.length) {
+			mismatched = Arrays.copyOf(mismatched, mismatchedCount * 2);
+		}
+		mismatched[mismatchedCount++] = row;
+	}
+
+	/**
+	 * Makes room in the hash for the given number of rows on top of the
+	 * 	target's, so merging them won't grow it. A hash too small for them
+	 * 	is replaced by an empty one of the right size, which catchUp then
+	 * 	fills from the target.
+	 * @param rows Number of rows expected to be merged
+	 */
+	public synchronized void expect(int rows) {
+		long needed = (long)((target.size() + (long)rows) / LOAD_FACTOR) + 1;
+		if(needed <= slots.length || needed > 1 << 30) return;
+
+		int size = Integer.highestOneBit((int)needed);
+		if(size < needed) size <<= 1;
+		slots = new int[size];
+		used = 0;
+		indexed = 0;
+	}
+
+	/**
+	 * Takes rows appended to the target by other means into the hash, or
+	 * 	starts over if it was cleared, until done or the deadline passes
+	 * @param deadline System.nanoTime() to stop by, checked every few
+	 * 	thousand rows
+	 * @return Whether the hash has caught up w/ the target
+	 */
+	public synchronized boolean catchUp(long deadline) {
+		if(target.getModCount() != modCount || target.size() < indexed) {
+			Arrays.fill(slots, 0);
+			used = 0;
+			indexed = 0;
+			mismatchedCount = 0;
+		}
+		modCount = target.getModCount();
+
+		int size = target.size();
+		while(indexed < size) {
+			int end = Math.min(size, indexed + CATCH_UP_STEP);
+			for(int row = indexed; row < end; row++) {
+				int slot = find(target.getTime(row), target.getId(row));
+				if(slots[slot] != 0) continue;
+				slots[slot] = row + 1;
+				if(++used > slots.length * LOAD_FACTOR) grow();
+			}
+			indexed = end;
+			if(indexed < size && System.nanoTime() >= deadline) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return Whether the hash holds every row of the target
+	 */
+	public synchronized boolean isCaughtUp() {
+		return target.getModCount() == modCount && target.size() == indexed;
+	}
+
+	/**
+	 * @return Slot holding the row w/ the given key, or the empty slot it
+	 * 	would go in
+	 */
+	private int find(int time, int id) {
+		int mask = slots.length - 1;
+		int slot = hash(time, id) & mask;
+		while(slots[slot] != 0) {
+			int row = slots[slot] - 1;
+			if(getTime(row) == time && getId(row) == id) return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int getTime(int row) {
+		return row < target.size() ?
+				target.getTime(row) :
+				source.getTime(runStart + row - target.size());
+	}
+
+	private int getId(int row) {
+		return row < target.size() ?
+				target.getId(row) :
+				source.getId(runStart + row - target.size());
+	}
+
+	private static int hash(int time, int id) {
+		long key = ((long)time << 32) ^ (id & 0xffffffffL);
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key >>> 32);
+	}
+
+	/**
+	 * Doubles the hash. Only called w/ no rows pending, as rows are rehashed
+	 * 	by reading their keys from the target.
+	 */
+	private void grow() {
+		int[] old = slots;
+		slots = new int[old.length * 2];
+		int mask = slots.length - 1;
+		for(int entry : old) {
+			if(entry == 0) continue;
+			int row = entry - 1;
+			int slot = hash(target.getTime(row), target.getId(row)) & mask;
+			while(slots[slot] != 0) slot = (slot + 1) & mask;
+			slots[slot] = entry;
+		}
+	}
+
+	/**
+	 * @return Rows found in the table already
+	 */
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * @return Duplicates found w/ a different position
+	 */
+	public synchronized long getConflicts() {
+		return conflicts;
+	}
+
+	/**
+	 * @return Rows of the table noted as mismatched by FLAG_MISMATCHES, once
+	 * 	per conflict, in the order noted
+	 */
+	public synchronized int[] getMismatchedRows() {
+		return Arrays.copyOf(mismatched, mismatchedCount);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("RaDecMerger (%s): %,d duplicates, %,d conflicts",
+				policy, duplicates, conflicts);
+	}
+}
@@ -0,0 +1,458 @@
+package com.dbs.gps.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Parses RaDec text files straight into a RaDecTable. The file is memory
+ * mapped a window at a time and the "time id ra dec" fields of each line are
+ * parsed in place from the mapped bytes, so no String, String[] or boxed
+ * number is created per line.
+ *
+ * <p>Lines are split as {@link RaDec#loadRaDec(java.net.URL)} splits them,
+ * w/ line.trim().split("\\s"): the ends are trimmed, then each single
+ * whitespace character separates a field, so two in a row make an empty
+ * field. As there, lines that do not hold exactly 4 fields are skipped, as
+ * are lines whose fields are not valid numbers. Lines end only at '\n',
+ * so a lone '\r' inside a line is taken as whitespace, where readLine
+ * would end the line there.</p>
+ *
+ * <p>A parser keeps running counters of what it has read, so the same
+ * instance can be used for several files and report the totals. Instances
+ * are not thread safe.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecParser {
+
+	/**
+	 * Number of bytes mapped at a time
+	 */
+	private static final long WINDOW_SIZE = 64L << 20;
+
+	/**
+	 * The thread is checked for interruption once every this many lines + 1
+	 */
+	private static final int INTERRUPT_CHECK_MASK = (1 << 16) - 1;
+
+	/**
+	 * Largest mantissa which is exactly representable as a double
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * Powers of ten which are exactly representable as a double
+	 */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * Total bytes scanned
+	 */
+	private long bytesRead = 0;
+
+	/**
+	 * Total rows added to tables
+	 */
+	private long rowsRead = 0;
+
+	/**
+	 * Total lines skipped for not holding 4 valid fields
+	 */
+	private long linesSkipped = 0;
+
+	/**
+	 * Total time spent parsing in nanoseconds
+	 */
+	private long elapsedNanos = 0;
+
+	/**
+	 * Fields of the line being parsed
+	 */
+	private int time;
+	private int id;
+	private double rightAscension;
+	private double declination;
+
+	/**
+	 * Result of the last parseInt
+	 */
+	private int parsedInt;
+
+	/**
+	 * Scratch space for the rare number the fast path can't handle
+	 */
+	private char[] fallbackChars = new char[32];
+
+	/**
+	 * Parses the whole of the given file
+	 * @param file RaDec file to parse
+	 * @param table RaDecTable to append rows to
+	 * @return The given table
+	 * @throws IOException If the file can't be read
+	 */
+	public RaDecTable parse(File file, RaDecTable table) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return parse(channel, 0, channel.size(), table);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses every line of the channel which starts within [start, end).
+	 * 	A line straddling start belongs to the previous range & one
+	 * 	straddling end is read to its finish, so adjacent ranges can be
+	 * 	parsed independently without losing or repeating lines.
+	 * @param channel FileChannel of RaDec file
+	 * @param start Offset of first byte of the range
+	 * @param end Offset one past the last byte of the range
+	 * @param table RaDecTable to append rows to
+	 * @return The given table
+	 * @throws IOException If the channel can't be mapped
+	 * @throws InterruptedIOException If the thread is interrupted
+	 */
+	public RaDecTable parse(
+			FileChannel channel,
+			long start,
+			long end,
+			RaDecTable table) throws IOException {
+
+		long began = System.nanoTime();
+		long fileSize = channel.size();
+		end = Math.min(end, fileSize);
+
+		long pos = start;
+		if(start > 0 && start < end) {
+			// back up a byte so a range starting on a line boundary keeps it
+			pos = skipLine(channel, start - 1, fileSize);
+		}
+
+		while(pos < end) {
+			long windowEnd = Math.min(fileSize, pos + WINDOW_SIZE);
+			boolean atEof = windowEnd == fileSize;
+			MappedByteBuffer buf = channel.map(
+					FileChannel.MapMode.READ_ONLY, pos, windowEnd - pos);
+			int limit = (int)(windowEnd - pos);
+
+			int lineStart = 0;
+			int lines = 0;
+			while(lineStart < limit && pos + lineStart < end) {
+				int lineEnd = parseLine(buf, lineStart, limit, atEof, table);
+				if(lineEnd < 0) break;
+				lineStart = lineEnd + 1;
+				if((++lines & INTERRUPT_CHECK_MASK) == 0 &&
+						Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("Interrupted while parsing");
+				}
+			}
+
+			if(lineStart == 0) {
+				// a single line longer than the window can't be valid
+				linesSkipped++;
+				lineStart = (int)(skipLine(channel, pos, fileSize) - pos);
+			}
+			pos += Math.min(lineStart, limit);
+		}
+
+		bytesRead += Math.max(0, Math.min(pos, fileSize) - start);
+		elapsedNanos += System.nanoTime() - began;
+
+		return table;
+	}
+
+	/**
+	 * Parses one line & adds it to the table if it holds 4 valid fields
+	 * @param buf Mapped window
+	 * @param from Index of the start of the line
+	 * @param limit Index one past the end of the window
+	 * @param atEof Whether the window ends at the end of the file
+	 * @param table RaDecTable to append row to
+	 * @return Index of the line's terminating newline (or limit at end of
+	 * 	file), or -1 if the line runs past the end of the window
+	 */
+	private int parseLine(
+			MappedByteBuffer buf,
+			int from,
+			int limit,
+			boolean atEof,
+			RaDecTable table) {
+
+		int end = from;
+		while(end < limit && buf.get(end) != '\n') end++;
+		if(end >= limit && !atEof) return -1;
+
+		// as String.trim, anything up to a space is trimmed from the ends
+		int start = from;
+		while(start < end && (buf.get(start) & 0xff) <= ' ') start++;
+		int stop = end;
+		while(stop > start && (buf.get(stop - 1) & 0xff) <= ' ') stop--;
+
+		// as split("\\s"), each whitespace character ends a field
+		int field = 0;
+		boolean valid = start < stop;
+		int tokenStart = start;
+		for(int i = start; valid && i <= stop; i++) {
+			if(i < stop && !isSpace(buf.get(i))) continue;
+			valid = field < 4 && i > tokenStart &&
+					parseField(buf, tokenStart, i, field);
+			field++;
+			tokenStart = i + 1;
+		}
+
+		if(valid && field == 4) {
+			table.add(time, id, rightAscension, declination);
+			rowsRead++;
+		} else if(start < stop) {
+			linesSkipped++;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Parses a field into the matching scratch field
+	 * @return true if the field was a valid number
+	 */
+	private boolean parseField(
+			MappedByteBuffer buf,
+			int from,
+			int to,
+			int field) {
+
+		switch(field) {
+		case 0:
+			if(!parseInt(buf, from, to)) return false;
+			time = parsedInt;
+			return true;
+		case 1:
+			if(!parseInt(buf, from, to)) return false;
+			id = parsedInt;
+			return true;
+		case 2:
+			rightAscension = parseDouble(buf, from, to);
+			return !Double.isNaN(rightAscension) || isNaNToken(buf, from, to);
+		default:
+			declination = parseDouble(buf, from, to);
+			return !Double.isNaN(declination) || isNaNToken(buf, from, to);
+		}
+	}
+
+	/**
+	 * Parses a signed decimal integer into parsedInt
+	 * @return true if the bytes held an integer which fits an int
+	 */
+	private boolean parseInt(MappedByteBuffer buf, int from, int to) {
+		int i = from;
+		boolean negative = false;
+		byte b = buf.get(i);
+		if(b == '-' || b == '+') {
+			negative = b == '-';
+			i++;
+		}
+		if(i == to) return false;
+
+		long value = 0;
+		for(; i < to; i++) {
+			b = buf.get(i);
+			if(b < '0' || b > '9') return false;
+			value = value * 10 + (b - '0');
+			// leading zeros may make the token long, the value can't be
+			if(value > 1L + Integer.MAX_VALUE) return false;
+		}
+		if(negative) value = -value;
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) return false;
+
+		parsedInt = (int)value;
+		return true;
+	}
+
+	/**
+	 * Parses a decimal number of the form [sign]digits[.digits][e[sign]digits]
+	 * 	directly from the bytes when the result is exact, falling back to
+	 * 	Double.parseDouble otherwise.
+	 * @return The parsed value, or NaN if the bytes aren't a number
+	 */
+	private double parseDouble(MappedByteBuffer buf, int from, int to) {
+		int i = from;
+		boolean negative = false;
+		byte b = buf.get(i);
+		if(b == '-' || b == '+') {
+			negative = b == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean sawDigit = false;
+		for(; i < to && (b = buf.get(i)) >= '0' && b <= '9'; i++) {
+			sawDigit = true;
+			mantissa = mantissa * 10 + (b - '0');
+			if(mantissa != 0) digits++;
+		}
+		if(i < to && buf.get(i) == '.') {
+			for(i++; i < to && (b = buf.get(i)) >= '0' && b <= '9'; i++) {
+				sawDigit = true;
+				mantissa = mantissa * 10 + (b - '0');
+				if(mantissa != 0) digits++;
+				exponent--;
+			}
+		}
+		if(sawDigit && i < to && ((b = buf.get(i)) == 'e' || b == 'E')) {
+			int j = i + 1;
+			boolean negativeExp = false;
+			if(j < to && ((b = buf.get(j)) == '-' || b == '+')) {
+				negativeExp = b == '-';
+				j++;
+			}
+			int exp = 0;
+			int expStart = j;
+			for(; j < to && (b = buf.get(j)) >= '0' && b <= '9'; j++) {
+				if(exp < 10000) exp = exp * 10 + (b - '0');
+			}
+			if(j > expStart) {
+				exponent += negativeExp ? -exp : exp;
+				i = j;
+			}
+		}
+
+		if(sawDigit && i == to && digits <= 18 &&
+				mantissa <= MAX_EXACT_MANTISSA &&
+				exponent >= -22 && exponent <= 22) {
+			double value = exponent < 0 ?
+					mantissa / POWERS_OF_TEN[-exponent] :
+					mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+
+		return parseDoubleSlow(buf, from, to);
+	}
+
+	/**
+	 * Decodes the bytes & hands them to Double.parseDouble
+	 * @return The parsed value, or NaN if the bytes aren't a number
+	 */
+	private double parseDoubleSlow(MappedByteBuffer buf, int from, int to) {
+		int length = to - from;
+		if(fallbackChars.length < length) {
+			fallbackChars = new char[length];
+		}
+		for(int i = 0; i < length; i++) {
+			fallbackChars[i] = (char)(buf.get(from + i) & 0xff);
+		}
+
+		try {
+			return Double.parseDouble(new String(fallbackChars, 0, length));
+		} catch(NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @return true if the bytes spell out a NaN Double.parseDouble accepts
+	 */
+	private static boolean isNaNToken(MappedByteBuffer buf, int from, int to) {
+		int i = from;
+		byte b = buf.get(i);
+		if(b == '-' || b == '+') i++;
+		return to - i == 3 &&
+				buf.get(i) == 'N' && buf.get(i+1) == 'a' && buf.get(i+2) == 'N';
+	}
+
+	/**
+	 * @return true for the characters matched by the regex \s, bar newline
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+
+	/**
+	 * Finds the start of the line following the given position
+	 * @param channel FileChannel of RaDec file
+	 * @param pos Position to search from
+	 * @param fileSize Size of the file
+	 * @return Offset just past the next newline, or fileSize if there is none
+	 * @throws IOException If the channel can't be mapped
+	 */
+	private static long skipLine(
+			FileChannel channel,
+			long pos,
+			long fileSize) throws IOException {
+
+		while(pos < fileSize) {
+			long windowEnd = Math.min(fileSize, pos + WINDOW_SIZE);
+			MappedByteBuffer buf = channel.map(
+					FileChannel.MapMode.READ_ONLY, pos, windowEnd - pos);
+			int limit = (int)(windowEnd - pos);
+			for(int i = 0; i < limit; i++) {
+				if(buf.get(i) == '\n') return pos + i + 1;
+			}
+			pos = windowEnd;
+		}
+
+		return fileSize;
+	}
+
+	/**
+	 * @return Total bytes scanned
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return Total rows added to tables
+	 */
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	/**
+	 * @return Total lines skipped for not holding 4 valid fields
+	 */
+	public long getLinesSkipped() {
+		return linesSkipped;
+	}
+
+	/**
+	 * @return Total time spent parsing in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return Parse throughput in megabytes per second
+	 */
+	public double getMegabytesPerSecond() {
+		return elapsedNanos == 0 ? 0 :
+			(bytesRead / (1024.0 * 1024.0)) / (elapsedNanos / 1e9);
+	}
+
+	/**
+	 * @return Parse throughput in rows per second
+	 */
+	public double getRowsPerSecond() {
+		return elapsedNanos == 0 ? 0 : rowsRead / (elapsedNanos / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d rows (%d skipped), %.1f MB in %.1f ms: %.1f MB/s, %.0f rows/s",
+				rowsRead,
+				linesSkipped,
+				bytesRead / (1024.0 * 1024.0),
+				elapsedNanos / 1e6,
+				getMegabytesPerSecond(),
+				getRowsPerSecond());
+	}
+}
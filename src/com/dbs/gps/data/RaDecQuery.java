@@ -0,0 +1,42 @@
+package com.dbs.gps.data;
+
+import java.util.Collection;
+
+/**
+ * Answers a (time window, ID set) query from the IdIndex, w/o visiting the
+ * rows. Each selected ID's rows in the window are found by binary search of
+ * its posting list & bounded by the posting list's segment bounds.
+ *
+ * @author Derek Springer
+ */
+public class RaDecQuery {
+
+	/**
+	 * Returns the bounds of the rows of the given IDs within the given window,
+	 * 	from the segment bounds of the IDs' posting lists
+	 * @param table RaDecTable to query
+	 * @param start Start time of window
+	 * @param stop End time of window
+	 * @param ids Collection of IDs to include
+	 * @return Least & greatest right ascension, then least & greatest
+	 * 	declination, or null if no row is in the window
+	 */
+	public static double[] bounds(
+			RaDecTable table,
+			int start,
+			int stop,
+			Collection<Integer> ids) {
+
+		double[] bounds = {
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		IdIndex index = table.getIdIndex();
+		for(int id : ids) {
+			IdIndex.Posting posting = index.get(id);
+			if(posting == null) continue;
+			posting.widenBounds(posting.first(start), posting.end(stop), bounds);
+		}
+
+		return bounds[0] <= bounds[1] ? bounds : null;
+	}
+}
@@ -0,0 +1,544 @@
+package com.dbs.gps.data;
+
+/**
+ * A columnar store of RaDec rows. The time, id, right ascension & declination
+ * of each row are kept in parallel primitive arrays which grow as rows are
+ * added, so a row costs 24 bytes instead of a boxed RaDec object. Large
+ * tables grow a page at a time, so appending never copies existing rows.
+ *
+ * <p>A table may instead keep its columns off the heap, in direct or memory
+ * mapped buffers, so tables too big for a sensible heap can be held & the
+ * garbage collector never sees the rows. Such a table owns its buffers &
+ * should be closed once done w/, which frees them at once.</p>
+ *
+ * <p>A table may also be backed by read only columns, such as those mapped
+ * from a RaDecCache file. Appending to such a table first copies its columns
+ * to the heap.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecTable {
+
+	/**
+	 * Where a table keeps its columns
+	 */
+	public enum Storage {
+
+		/**
+		 * On the heap, in int[] & double[] pages
+		 */
+		HEAP,
+
+		/**
+		 * Off the heap, in direct buffers. These count against
+		 * 	-XX:MaxDirectMemorySize, which defaults to about the size of the
+		 * 	heap, so a table bigger than -Xmx needs that raised or MAPPED.
+		 */
+		DIRECT,
+
+		/**
+		 * Off the heap, in buffers mapped from temporary files, which the
+		 * 	OS can page out to the files rather than to swap
+		 */
+		MAPPED
+	}
+
+	/**
+	 * Capacity used when none is given
+	 */
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Where new columns are made
+	 */
+	private final Storage storage;
+
+	/**
+	 * Time in seconds past start for each row
+	 */
+	private IntColumn times;
+
+	/**
+	 * ID of object for each row
+	 */
+	private IntColumn ids;
+
+	/**
+	 * Right Ascension in degrees for each row
+	 */
+	private DoubleColumn rightAscensions;
+
+	/**
+	 * Declination in degrees for each row
+	 */
+	private DoubleColumn declinations;
+
+	/**
+	 * Number of rows in use
+	 */
+	private int size = 0;
+
+	/**
+	 * Earliest time in the table
+	 */
+	private int startTime = Integer.MAX_VALUE;
+
+	/**
+	 * Latest time in the table, never less than 0
+	 */
+	private int stopTime = 0;
+
+	/**
+	 * Number of times rows have been changed in place or the table cleared
+	 */
+	private int modCount = 0;
+
+	/**
+	 * Time ordered index over the rows, built on first use
+	 */
+	private TimeIndex timeIndex = null;
+
+	/**
+	 * Index from ID to rows, built on first use
+	 */
+	private IdIndex idIndex = null;
+
+	/**
+	 * Grid over right ascension & declination, built on first use
+	 */
+	private SpatialIndex spatialIndex = null;
+
+	/**
+	 * Default constructor
+	 */
+	public RaDecTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty table able to hold the given number of rows before
+	 * growing
+	 * @param capacity Initial number of rows
+	 */
+	public RaDecTable(int capacity) {
+		this(capacity, Storage.HEAP);
+	}
+
+	/**
+	 * Creates an empty table w/ its columns kept where given
+	 * @param storage Where to keep the columns
+	 */
+	public RaDecTable(Storage storage) {
+		this(DEFAULT_CAPACITY, storage);
+	}
+
+	/**
+	 * Creates an empty table able to hold the given number of rows before
+	 * growing, w/ its columns kept where given
+	 * @param capacity Initial number of rows
+	 * @param storage Where to keep the columns
+	 */
+	public RaDecTable(int capacity, Storage storage) {
+		this.storage = storage;
+		allocate(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Creates a table over existing columns
+	 * @param times Time column
+	 * @param ids ID column
+	 * @param rightAscensions Right Ascension column
+	 * @param declinations Declination column
+	 * @param size Number of rows in use
+	 * @param startTime Earliest time in the columns
+	 * @param stopTime Latest time in the columns
+	 */
+	RaDecTable(
+			IntColumn times,
+			IntColumn ids,
+			DoubleColumn rightAscensions,
+			DoubleColumn declinations,
+			int size,
+			int startTime,
+			int stopTime) {
+
+		this.storage = Storage.HEAP;
+		this.times = times;
+		this.ids = ids;
+		this.rightAscensions = rightAscensions;
+		this.declinations = declinations;
+		this.size = size;
+		this.startTime = startTime;
+		this.stopTime = stopTime;
+	}
+
+	private void allocate(int capacity) {
+		times = IntColumn.create(storage, capacity);
+		ids = IntColumn.create(storage, capacity);
+		rightAscensions = DoubleColumn.create(storage, capacity);
+		declinations = DoubleColumn.create(storage, capacity);
+	}
+
+	/**
+	 * Appends a row to the table
+	 * @param time Time in seconds past start
+	 * @param id ID of object
+	 * @param rightAscension Right Ascension of object at given time
+	 * @param declination Declination of object at given time
+	 */
+	public void add(
+			int time,
+			int id,
+			double rightAscension,
+			double declination) {
+
+		if(size == times.capacity() || times.isReadOnly()) {
+			ensureCapacity(size + 1);
+		}
+		times.set(size, time);
+		ids.set(size, id);
+		rightAscensions.set(size, rightAscension);
+		declinations.set(size, declination);
+		size++;
+
+		if(time < startTime) startTime = time;
+		if(time > stopTime) stopTime = time;
+	}
+
+	/**
+	 * Appends the given RaDec to the table
+	 * @param raDec RaDec to add
+	 */
+	public void add(RaDec raDec) {
+		add(raDec.getTime(),
+				raDec.getId(),
+				raDec.getRightAscension(),
+				raDec.getDeclination());
+	}
+
+	/**
+	 * Appends row of another table to this one
+	 * @param other Table to copy from
+	 * @param row Index of the row in other
+	 */
+	public void add(RaDecTable other, int row) {
+		add(other.times.get(row),
+				other.ids.get(row),
+				other.rightAscensions.get(row),
+				other.declinations.get(row));
+	}
+
+	/**
+	 * Appends all the rows of another table to this one. If this table is
+	 * 	empty & on the heap & other is read only, its columns are shared
+	 * 	rather than copied. A table kept off the heap always copies, so it
+	 * 	owns the columns close frees.
+	 * @param other Table to copy from
+	 */
+	public void addAll(RaDecTable other) {
+		if(storage == Storage.HEAP && size == 0 && other.isReadOnly() &&
+				capacity() < other.size) {
+			times = other.times;
+			ids = other.ids;
+			rightAscensions = other.rightAscensions;
+			declinations = other.declinations;
+			size = other.size;
+			startTime = other.startTime;
+			stopTime = other.stopTime;
+			return;
+		}
+
+		addAll(other, 0, other.size);
+	}
+
+	/**
+	 * Appends a range of rows of another table to this one
+	 * @param other Table to copy from
+	 * @param from Index of the first row to copy
+	 * @param length Number of rows to copy
+	 */
+	public void addAll(RaDecTable other, int from, int length) {
+		ensureCapacity(size + length);
+		other.times.copyTo(from, times, size, length);
+		other.ids.copyTo(from, ids, size, length);
+		other.rightAscensions.copyTo(from, rightAscensions, size, length);
+		other.declinations.copyTo(from, declinations, size, length);
+
+		if(from == 0 && length == other.size) {
+			if(other.startTime < startTime) startTime = other.startTime;
+			if(other.stopTime > stopTime) stopTime = other.stopTime;
+		} else {
+			for(int row = size; row < size + length; row++) {
+				int time = times.get(row);
+				if(time < startTime) startTime = time;
+				if(time > stopTime) stopTime = time;
+			}
+		}
+		size += length;
+	}
+
+	/**
+	 * Moves a row to a new position in place. The SpatialIndex is dropped, &
+	 * 	anything else derived from the positions should check getModCount.
+	 * @param row Index of the row
+	 * @param rightAscension New Right Ascension of the row
+	 * @param declination New Declination of the row
+	 */
+	public synchronized void setPosition(
+			int row,
+			double rightAscension,
+			double declination) {
+
+		if(times.isReadOnly()) ensureCapacity(size);
+		rightAscensions.set(row, rightAscension);
+		declinations.set(row, declination);
+		spatialIndex = null;
+		modCount++;
+	}
+
+	/**
+	 * @return Number of times rows have been changed in place or the table
+	 * 	cleared, so derived data can tell it is out of date
+	 */
+	public int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * Makes sure the table can hold at least the given number of rows
+	 * @param capacity Minimum number of rows
+	 */
+	public void ensureCapacity(int capacity) {
+		if(capacity <= times.capacity() && !times.isReadOnly()) return;
+
+		times = times.grow(capacity, size, storage);
+		ids = ids.grow(capacity, size, storage);
+		rightAscensions = rightAscensions.grow(capacity, size, storage);
+		declinations = declinations.grow(capacity, size, storage);
+	}
+
+	/**
+	 * Shrinks the backing arrays to the number of rows in use
+	 */
+	public void trimToSize() {
+		times = times.trim(size);
+		ids = ids.trim(size);
+		rightAscensions = rightAscensions.trim(size);
+		declinations = declinations.trim(size);
+	}
+
+	/**
+	 * Removes all rows, keeping the allocated capacity
+	 */
+	public void clear() {
+		size = 0;
+		timeIndex = null;
+		idIndex = null;
+		spatialIndex = null;
+		modCount++;
+		startTime = Integer.MAX_VALUE;
+		stopTime = 0;
+	}
+
+	/**
+	 * Frees the memory of the columns & empties the table, which may then
+	 * 	be refilled. The columns of a table kept off the heap are otherwise
+	 * 	freed only once the garbage collector finds them unreachable, which
+	 * 	for memory the heap never sees may be long after. Nothing may read
+	 * 	the table from other threads while it's closed.
+	 */
+	public synchronized void close() {
+		times.release();
+		ids.release();
+		rightAscensions.release();
+		declinations.release();
+		clear();
+		allocate(1);
+	}
+
+	/**
+	 * @return Where the table keeps new columns
+	 */
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @return Bytes the columns take off the heap, which close frees
+	 */
+	public long getOffHeapBytes() {
+		return times.getOffHeapBytes() + ids.getOffHeapBytes() +
+				rightAscensions.getOffHeapBytes() +
+				declinations.getOffHeapBytes();
+	}
+
+	/**
+	 * @return Number of rows in the table
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Number of rows the table can hold before growing
+	 */
+	public int capacity() {
+		return times.capacity();
+	}
+
+	/**
+	 * @return Rough bytes of heap the columns & the indexes built so far take
+	 */
+	public synchronized long getMemoryEstimate() {
+		long bytes = storage == Storage.HEAP ?
+				(long)capacity() * (4 + 4 + 8 + 8) : 0;
+		// row numbers & times, row numbers by ID, row numbers by cell
+		if(timeIndex != null) bytes += 8L * size;
+		if(idIndex != null) bytes += 4L * size;
+		if(spatialIndex != null) bytes += 4L * size;
+		return bytes;
+	}
+
+	/**
+	 * @return true if the table is backed by read only columns, which will be
+	 * 	copied to the heap on the next append
+	 */
+	public boolean isReadOnly() {
+		return times.isReadOnly();
+	}
+
+	/**
+	 * @return true if the table holds no rows
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the time ordered index over the rows of the table, building it
+	 * 	or bringing it up to date w/ appended rows as needed
+	 * @return TimeIndex covering every row of the table
+	 */
+	public synchronized TimeIndex getTimeIndex() {
+		if(timeIndex == null) {
+			timeIndex = new TimeIndex(this);
+		} else if(timeIndex.size() < size) {
+			timeIndex.update(this);
+		}
+		return timeIndex;
+	}
+
+	/**
+	 * Returns the index from ID to rows of the table, building it or bringing
+	 * 	it up to date w/ appended rows as needed
+	 * @return IdIndex covering every row of the table
+	 */
+	public synchronized IdIndex getIdIndex() {
+		if(idIndex == null) {
+			idIndex = new IdIndex(this);
+		} else if(idIndex.size() < size) {
+			idIndex.update();
+		}
+		return idIndex;
+	}
+
+	/**
+	 * Builds the time & ID indexes & the bounds of each ID's rows, so the
+	 * 	first query after a load doesn't pay for them. Meant to run off the
+	 * 	EDT once a load has been appended. The indexes are built aside w/o
+	 * 	the table's lock & only put in place if the table wasn't changed or
+	 * 	cleared meanwhile, so the EDT never waits on the build. Stops early,
+	 * 	throwing away what was built, if the thread is interrupted. Nothing
+	 * 	may close the table until this returns.
+	 */
+	public void buildIndexes() {
+		int builtModCount;
+		TimeIndex time;
+		IdIndex id;
+		synchronized(this) {
+			builtModCount = modCount;
+			time = timeIndex != null && timeIndex.size() == size ?
+					timeIndex : null;
+			id = idIndex != null && idIndex.size() == size ? idIndex : null;
+		}
+
+		if(id == null) {
+			// an index in place may be read by the EDT, so build a new one
+			// rather than update it
+			if(time == null) time = new TimeIndex(this, true);
+			if(Thread.currentThread().isInterrupted()) return;
+			id = new IdIndex(this, time);
+			if(Thread.currentThread().isInterrupted()) return;
+		}
+		id.updateBounds();
+		if(Thread.currentThread().isInterrupted()) return;
+
+		synchronized(this) {
+			if(modCount != builtModCount) return;
+			if(time != null &&
+					(timeIndex == null || timeIndex.size() < time.size())) {
+				timeIndex = time;
+			}
+			if(idIndex == null || idIndex.size() < id.size()) idIndex = id;
+		}
+	}
+
+	/**
+	 * Returns the grid over right ascension & declination of the rows of the
+	 * 	table, building it or bringing it up to date w/ appended rows as
+	 * 	needed
+	 * @return SpatialIndex covering every row of the table
+	 */
+	public synchronized SpatialIndex getSpatialIndex() {
+		if(spatialIndex == null) {
+			spatialIndex = new SpatialIndex(this);
+		} else if(spatialIndex.size() < size) {
+			spatialIndex.update();
+		}
+		return spatialIndex;
+	}
+
+	/**
+	 * @return Earliest time in the table, or Integer.MAX_VALUE if empty
+	 */
+	public int getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return Latest time in the table, or 0 if empty
+	 */
+	public int getStopTime() {
+		return stopTime;
+	}
+
+	public int getTime(int row) {
+		return times.get(row);
+	}
+
+	public int getId(int row) {
+		return ids.get(row);
+	}
+
+	public double getRightAscension(int row) {
+		return rightAscensions.get(row);
+	}
+
+	public double getDeclination(int row) {
+		return declinations.get(row);
+	}
+
+	/**
+	 * Creates a RaDec object for the given row. Meant for occasional use,
+	 * bulk consumers should read the columns through the getters.
+	 * @param row Index of row
+	 * @return RaDec holding the row's values
+	 */
+	public RaDec get(int row) {
+		return new RaDec(
+				times.get(row),
+				ids.get(row),
+				rightAscensions.get(row),
+				declinations.get(row));
+	}
+}
@@ -0,0 +1,169 @@
+package com.dbs.gps.data;
+
+import java.util.Arrays;
+
+/**
+ * The least & greatest right ascension & declination of a posting list's
+ * rows, kept for each fixed size segment of the list & summed up in a
+ * segment tree. As a posting list is in time order, each segment is a slice
+ * of time for one ID, & the bounds of any window of the list come from its
+ * two partial end segments plus O(log n) nodes of the tree, w/o a pass over
+ * the rows in between.
+ *
+ * <p>Appended rows extend the last segments in place; a list merged into a
+ * new array, or a table whose rows were changed in place, is summed up again
+ * from scratch.</p>
+ *
+ * @author Derek Springer
+ */
+class SegmentBounds {
+
+	/**
+	 * Rows per segment
+	 */
+	static final int SEGMENT_SIZE = 64;
+
+	/**
+	 * Table the rows are in
+	 */
+	private final RaDecTable table;
+
+	/**
+	 * Posting list array the bounds are of, & the number of its rows covered
+	 */
+	private int[] rows = null;
+	private int size = 0;
+
+	/**
+	 * Mod count of the table the bounds were summed up at
+	 */
+	private int modCount = 0;
+
+	/**
+	 * Leaves in the tree, a power of two at least the number of segments
+	 */
+	private int leaves = 0;
+
+	/**
+	 * Tree nodes, 1 being the root & leaves + i the i-th segment
+	 */
+	private double[] minRa = new double[0];
+	private double[] maxRa = new double[0];
+	private double[] minDec = new double[0];
+	private double[] maxDec = new double[0];
+
+	/**
+	 * @param table Table the rows are in
+	 */
+	SegmentBounds(RaDecTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Brings the bounds up to date w/ a posting list
+	 * @param rows Array backing the posting list
+	 * @param size Number of rows in the list
+	 */
+	void update(int[] rows, int size) {
+		if(rows != this.rows || size < this.size ||
+				table.getModCount() != modCount) {
+			this.rows = rows;
+			this.size = 0;
+			modCount = table.getModCount();
+		}
+		if(size == this.size) return;
+
+		int segments = (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+		int from = this.size / SEGMENT_SIZE;
+		if(segments > leaves || this.size == 0) {
+			int capacity = Math.max(1, Integer.highestOneBit(segments));
+			if(capacity < segments) capacity <<= 1;
+			leaves = capacity;
+			minRa = new double[2 * capacity];
+			maxRa = new double[2 * capacity];
+			minDec = new double[2 * capacity];
+			maxDec = new double[2 * capacity];
+			Arrays.fill(minRa, Double.POSITIVE_INFINITY);
+			Arrays.fill(maxRa, Double.NEGATIVE_INFINITY);
+			Arrays.fill(minDec, Double.POSITIVE_INFINITY);
+			Arrays.fill(maxDec, Double.NEGATIVE_INFINITY);
+			from = 0;
+		}
+
+		for(int segment = from; segment < segments; segment++) {
+			int node = leaves + segment;
+			int end = Math.min(size, (segment + 1) * SEGMENT_SIZE);
+			minRa[node] = minDec[node] = Double.POSITIVE_INFINITY;
+			maxRa[node] = maxDec[node] = Double.NEGATIVE_INFINITY;
+			for(int i = segment * SEGMENT_SIZE; i < end; i++) {
+				double ra = table.getRightAscension(rows[i]);
+				double dec = table.getDeclination(rows[i]);
+				if(ra < minRa[node]) minRa[node] = ra;
+				if(ra > maxRa[node]) maxRa[node] = ra;
+				if(dec < minDec[node]) minDec[node] = dec;
+				if(dec > maxDec[node]) maxDec[node] = dec;
+			}
+		}
+
+		// re-sum the parents of the segments which changed, level by level
+		int lo = (leaves + from) >> 1;
+		int hi = (leaves + segments - 1) >> 1;
+		while(lo >= 1) {
+			for(int node = lo; node <= hi; node++) {
+				minRa[node] = Math.min(minRa[2 * node], minRa[2 * node + 1]);
+				maxRa[node] = Math.max(maxRa[2 * node], maxRa[2 * node + 1]);
+				minDec[node] = Math.min(minDec[2 * node], minDec[2 * node + 1]);
+				maxDec[node] = Math.max(maxDec[2 * node], maxDec[2 * node + 1]);
+			}
+			lo >>= 1;
+			hi >>= 1;
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Widens the given bounds to take in the rows at positions [first, end)
+	 * 	of the posting list last updated to
+	 * @param first Position of the first row
+	 * @param end Position just past the last row
+	 * @param bounds Least & greatest right ascension, then least & greatest
+	 * 	declination, to widen
+	 */
+	void widen(int first, int end, double[] bounds) {
+		int firstSegment = (first + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+		int endSegment = end / SEGMENT_SIZE;
+		if(firstSegment >= endSegment) {
+			widenRows(first, end, bounds);
+			return;
+		}
+
+		widenRows(first, firstSegment * SEGMENT_SIZE, bounds);
+		widenRows(endSegment * SEGMENT_SIZE, end, bounds);
+		int lo = leaves + firstSegment;
+		int hi = leaves + endSegment;
+		while(lo < hi) {
+			if((lo & 1) == 1) widenNode(lo++, bounds);
+			if((hi & 1) == 1) widenNode(--hi, bounds);
+			lo >>= 1;
+			hi >>= 1;
+		}
+	}
+
+	private void widenRows(int from, int to, double[] bounds) {
+		for(int i = from; i < to; i++) {
+			double ra = table.getRightAscension(rows[i]);
+			double dec = table.getDeclination(rows[i]);
+			if(ra < bounds[0]) bounds[0] = ra;
+			if(ra > bounds[1]) bounds[1] = ra;
+			if(dec < bounds[2]) bounds[2] = dec;
+			if(dec > bounds[3]) bounds[3] = dec;
+		}
+	}
+
+	private void widenNode(int node, double[] bounds) {
+		if(minRa[node] < bounds[0]) bounds[0] = minRa[node];
+		if(maxRa[node] > bounds[1]) bounds[1] = maxRa[node];
+		if(minDec[node] < bounds[2]) bounds[2] = minDec[node];
+		if(maxDec[node] > bounds[3]) bounds[3] = maxDec[node];
+	}
+}
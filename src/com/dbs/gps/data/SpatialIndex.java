@@ -0,0 +1,296 @@
+package com.dbs.gps.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A uniform grid over the right ascension & declination of the rows of a
+ * RaDecTable, for finding the rows within a box of sky. Each cell holds its
+ * row numbers sorted by ID & then time, so within a cell the rows of an ID
+ * in a time window are a contiguous run found by binary search. A query for
+ * a (box, time window, ID set) visits only the cells overlapping the box &
+ * checks the exact bounds only in the cells along its edges.
+ *
+ * <p>The grid is sized for about 64 rows per cell & spans the bounds of the
+ * rows it was built over. Rows appended to the table afterwards are checked
+ * one by one by each query until they come to more than a quarter of the
+ * grid, when it is rebuilt.</p>
+ *
+ * @author Derek Springer
+ */
+public class SpatialIndex {
+
+	/**
+	 * Rows to aim for in each cell
+	 */
+	private static final int ROWS_PER_CELL = 64;
+
+	/**
+	 * Most cells along each side of the grid
+	 */
+	private static final int MAX_SIDE = 1024;
+
+	/**
+	 * Table the index is over
+	 */
+	private final RaDecTable table;
+
+	/**
+	 * Bounds of the grid
+	 */
+	private double minRa;
+	private double minDec;
+
+	/**
+	 * Cells per unit of right ascension & declination
+	 */
+	private double scaleRa;
+	private double scaleDec;
+
+	/**
+	 * Cells along each side of the grid
+	 */
+	private int side;
+
+	/**
+	 * Position in rows of the first row of each cell, w/ one extra entry
+	 * 	holding the number of rows
+	 */
+	private int[] cellStarts;
+
+	/**
+	 * Row numbers of the table by cell, then ID, then time
+	 */
+	private int[] rows;
+
+	/**
+	 * Number of rows in the grid
+	 */
+	private int size = 0;
+
+	/**
+	 * Builds an index over all the rows of the given table
+	 * @param table RaDecTable to index
+	 */
+	public SpatialIndex(RaDecTable table) {
+		this.table = table;
+		build();
+	}
+
+	/**
+	 * Rebuilds the grid if the rows appended to the table since it was built
+	 * 	have grown too many to check one by one
+	 */
+	public void update() {
+		if(table.size() - size > size / 4) build();
+	}
+
+	private void build() {
+		int n = table.size();
+		double maxRa = Double.NEGATIVE_INFINITY;
+		double maxDec = Double.NEGATIVE_INFINITY;
+		minRa = Double.POSITIVE_INFINITY;
+		minDec = Double.POSITIVE_INFINITY;
+		for(int row = 0; row < n; row++) {
+			double ra = table.getRightAscension(row);
+			double dec = table.getDeclination(row);
+			if(ra < minRa) minRa = ra;
+			if(ra > maxRa) maxRa = ra;
+			if(dec < minDec) minDec = dec;
+			if(dec > maxDec) maxDec = dec;
+		}
+		if(minRa > maxRa) minRa = maxRa = 0;
+		if(minDec > maxDec) minDec = maxDec = 0;
+
+		side = (int)Math.max(1, Math.min(MAX_SIDE,
+				Math.sqrt((double)n / ROWS_PER_CELL)));
+		scaleRa = maxRa > minRa ? side / (maxRa - minRa) : 0;
+		scaleDec = maxDec > minDec ? side / (maxDec - minDec) : 0;
+
+		int[] cells = new int[n];
+		cellStarts = new int[side * side + 1];
+		for(int row = 0; row < n; row++) {
+			cells[row] = cellOf(table.getRightAscension(row),
+					table.getDeclination(row));
+			cellStarts[cells[row] + 1]++;
+		}
+		for(int cell = 0; cell < side * side; cell++) {
+			cellStarts[cell + 1] += cellStarts[cell];
+		}
+
+		// scattering the rows in ID & time order leaves each cell sorted
+		int[] next = Arrays.copyOf(cellStarts, side * side);
+		rows = new int[n];
+		IdIndex idIndex = table.getIdIndex();
+		for(int id : idIndex.getIds()) {
+			IdIndex.Posting posting = idIndex.get(id);
+			for(int i = 0; i < posting.size(); i++) {
+				int row = posting.getRow(i);
+				rows[next[cells[row]]++] = row;
+			}
+		}
+		size = n;
+	}
+
+	private int cellOf(double ra, double dec) {
+		return rowOf(dec) * side + columnOf(ra);
+	}
+
+	private int columnOf(double ra) {
+		int column = (int)((ra - minRa) * scaleRa);
+		return column < 0 ? 0 : column >= side ? side - 1 : column;
+	}
+
+	private int rowOf(double dec) {
+		int row = (int)((dec - minDec) * scaleDec);
+		return row < 0 ? 0 : row >= side ? side - 1 : row;
+	}
+
+	/**
+	 * @return Number of rows in the grid
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the rows of the given IDs within a box & time window
+	 * @param minRa Least right ascension of the box
+	 * @param maxRa Greatest right ascension of the box
+	 * @param minDec Least declination of the box
+	 * @param maxDec Greatest declination of the box
+	 * @param start Start time of window
+	 * @param stop End time of window
+	 * @param ids Collection of IDs to include
+	 * @return Map of row numbers, by ID. key = id, val = rows in the box &
+	 * 	window, grouped by cell rather than in time order. IDs w/o rows are
+	 * 	left out.
+	 */
+	public Map<Integer, int[]> query(
+			double minRa,
+			double maxRa,
+			double minDec,
+			double maxDec,
+			int start,
+			int stop,
+			Collection<Integer> ids) {
+
+		int[] wanted = RaDec.toSortedArray(ids);
+		int[][] found = new int[wanted.length][];
+		int[] counts = new int[wanted.length];
+
+		int firstColumn = columnOf(minRa);
+		int lastColumn = columnOf(maxRa);
+		int firstRow = rowOf(minDec);
+		int lastRow = rowOf(maxDec);
+		for(int cellRow = firstRow; cellRow <= lastRow; cellRow++) {
+			for(int column = firstColumn; column <= lastColumn; column++) {
+				boolean edge = cellRow == firstRow || cellRow == lastRow ||
+						column == firstColumn || column == lastColumn;
+				int cell = cellRow * side + column;
+				int end = cellStarts[cell + 1];
+				int pos = cellStarts[cell];
+				while(pos < end) {
+					int id = table.getId(rows[pos]);
+					int runEnd = idEnd(pos, end, id);
+					int slot = Arrays.binarySearch(wanted, id);
+					if(slot >= 0) {
+						int from = timeStart(pos, runEnd, start);
+						int to = timeEnd(from, runEnd, stop);
+						for(int i = from; i < to; i++) {
+							int row = rows[i];
+							if(edge && !inBox(row, minRa, maxRa, minDec, maxDec)) {
+								continue;
+							}
+							add(found, counts, slot, row);
+						}
+					}
+					pos = runEnd;
+				}
+			}
+		}
+
+		// rows appended since the grid was built
+		for(int row = size; row < table.size(); row++) {
+			int time = table.getTime(row);
+			if(time < start || time > stop) continue;
+			if(!inBox(row, minRa, maxRa, minDec, maxDec)) continue;
+			int slot = Arrays.binarySearch(wanted, table.getId(row));
+			if(slot >= 0) add(found, counts, slot, row);
+		}
+
+		Map<Integer, int[]> byId = new TreeMap<Integer, int[]>();
+		for(int slot = 0; slot < wanted.length; slot++) {
+			if(counts[slot] == 0) continue;
+			byId.put(wanted[slot], Arrays.copyOf(found[slot], counts[slot]));
+		}
+
+		return byId;
+	}
+
+	private boolean inBox(
+			int row,
+			double minRa,
+			double maxRa,
+			double minDec,
+			double maxDec) {
+
+		double ra = table.getRightAscension(row);
+		double dec = table.getDeclination(row);
+		return ra >= minRa && ra <= maxRa && dec >= minDec && dec <= maxDec;
+	}
+
+	private static void add(int[][] found, int[] counts, int slot, int row) {
+		if(found[slot] == null) {
+			found[slot] = new int[16];
+		} else if(counts[slot] == found[slot].length) {
+			found[slot] = Arrays.copyOf(found[slot], counts[slot] * 2);
+		}
+		found[slot][counts[slot]++] = row;
+	}
+
+	/**
+	 * @return Position just past the last row of the run of the given ID
+	 * 	starting at from
+	 */
+	private int idEnd(int from, int to, int id) {
+		int lo = from;
+		int hi = to;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(table.getId(rows[mid]) <= id) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return Position of the first row in [from, to) w/ time &gt;= start
+	 */
+	private int timeStart(int from, int to, int start) {
+		int lo = from;
+		int hi = to;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(table.getTime(rows[mid]) < start) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return Position just past the last row in [from, to) w/ time &lt;= stop
+	 */
+	private int timeEnd(int from, int to, int stop) {
+		int lo = from;
+		int hi = to;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(table.getTime(rows[mid]) <= stop) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,243 @@
+package com.dbs.gps.data;
+
+import java.util.Arrays;
+
+/**
+ * A time ordered index over the rows of a RaDecTable. The index holds the
+ * row numbers of the table sorted by time (ties in row order) alongside the
+ * sorted times, so a [start, stop] window is found by two binary searches &
+ * resolves to a contiguous range of positions in the index. Rows are read
+ * through the index without copying anything.
+ *
+ * <p>The index is built w/ a stable radix sort & is brought up to date with
+ * rows appended to the table by sorting just the new rows & merging them
+ * in. Rows which arrive in time order, as when following a file, are simply
+ * appended.</p>
+ *
+ * @author Derek Springer
+ */
+public class TimeIndex {
+
+	/**
+	 * Bits of the key sorted per radix pass
+	 */
+	private static final int RADIX_BITS = 16;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int RADIX_MASK = RADIX - 1;
+
+	/**
+	 * Row numbers of the table in time order
+	 */
+	private int[] rows;
+
+	/**
+	 * Times of the rows, in the same order
+	 */
+	private int[] times;
+
+	/**
+	 * Number of rows indexed
+	 */
+	private int size = 0;
+
+	/**
+	 * Builds an index over all the rows of the given table
+	 * @param table RaDecTable to index
+	 */
+	public TimeIndex(RaDecTable table) {
+		this(table, false);
+	}
+
+	/**
+	 * Builds an index over all the rows of the given table
+	 * @param table RaDecTable to index
+	 * @param interruptible Whether to stop early if the thread is
+	 * 	interrupted, leaving the index empty
+	 */
+	TimeIndex(RaDecTable table, boolean interruptible) {
+		rows = new int[Math.max(table.size(), 1)];
+		times = new int[rows.length];
+		int[] sorted = sort(table, 0, table.size(), interruptible);
+		if(sorted != null) add(table, sorted);
+	}
+
+	/**
+	 * Adds the rows appended to the table since the index was last updated
+	 * @param table RaDecTable the index was built over
+	 */
+	public void update(RaDecTable table) {
+		if(table.size() <= size) return;
+		add(table, sort(table, size, table.size(), false));
+	}
+
+	/**
+	 * Adds the given rows, appended to the table since the index was last
+	 * 	updated
+	 * @param table RaDecTable the index was built over
+	 * @param newRows Row numbers of the new rows in time order
+	 */
+	private void add(RaDecTable table, int[] newRows) {
+		int added = newRows.length;
+		int[] newTimes = new int[added];
+		for(int i = 0; i < added; i++) {
+			newTimes[i] = table.getTime(newRows[i]);
+		}
+
+		if(size == 0 || newTimes[0] >= times[size - 1]) {
+			if(size + added > rows.length) {
+				int capacity = Math.max(size + added, size + (size >> 1));
+				rows = Arrays.copyOf(rows, capacity);
+				times = Arrays.copyOf(times, capacity);
+			}
+			System.arraycopy(newRows, 0, rows, size, added);
+			System.arraycopy(newTimes, 0, times, size, added);
+			size += added;
+			return;
+		}
+
+		int[] mergedRows = new int[size + added];
+		int[] mergedTimes = new int[size + added];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while(i < size && j < added) {
+			// existing rows come first on ties, they have the lower row numbers
+			if(times[i] <= newTimes[j]) {
+				mergedRows[k] = rows[i];
+				mergedTimes[k++] = times[i++];
+			} else {
+				mergedRows[k] = newRows[j];
+				mergedTimes[k++] = newTimes[j++];
+			}
+		}
+		for(; i < size; i++, k++) {
+			mergedRows[k] = rows[i];
+			mergedTimes[k] = times[i];
+		}
+		for(; j < added; j++, k++) {
+			mergedRows[k] = newRows[j];
+			mergedTimes[k] = newTimes[j];
+		}
+		rows = mergedRows;
+		times = mergedTimes;
+		size += added;
+	}
+
+	/**
+	 * Sorts rows [from, to) of the table by time w/ a stable LSD radix sort,
+	 * 	taking a second pass only when the times span more than 2^16 values
+	 * @param interruptible Whether to check for interrupts between passes
+	 * @return Row numbers in time order, or null if interrupted
+	 */
+	private static int[] sort(
+			RaDecTable table,
+			int from,
+			int to,
+			boolean interruptible) {
+
+		int n = to - from;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for(int row = from; row < to; row++) {
+			int time = table.getTime(row);
+			if(time < min) min = time;
+			if(time > max) max = time;
+		}
+
+		if(interruptible && Thread.currentThread().isInterrupted()) return null;
+		int[] sorted = new int[n];
+		int[] count = new int[RADIX + 1];
+		for(int row = from; row < to; row++) {
+			count[((table.getTime(row) - min) & RADIX_MASK) + 1]++;
+		}
+		for(int i = 0; i < RADIX; i++) {
+			count[i + 1] += count[i];
+		}
+		for(int row = from; row < to; row++) {
+			sorted[count[(table.getTime(row) - min) & RADIX_MASK]++] = row;
+		}
+
+		// unsigned, as the span of an int can exceed Integer.MAX_VALUE
+		if(((long)max - min) >>> RADIX_BITS == 0) return sorted;
+		if(interruptible && Thread.currentThread().isInterrupted()) return null;
+
+		int[] out = new int[n];
+		Arrays.fill(count, 0);
+		for(int i = 0; i < n; i++) {
+			count[((table.getTime(sorted[i]) - min) >>> RADIX_BITS) + 1]++;
+		}
+		for(int i = 0; i < RADIX; i++) {
+			count[i + 1] += count[i];
+		}
+		for(int i = 0; i < n; i++) {
+			int row = sorted[i];
+			out[count[(table.getTime(row) - min) >>> RADIX_BITS]++] = row;
+		}
+
+		return out;
+	}
+
+	/**
+	 * @return Number of rows indexed
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param start Start time of the window
+	 * @return Position of the first row w/ time &gt;= start
+	 */
+	public int first(int start) {
+		int lo = 0;
+		int hi = size;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(times[mid] < start) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param stop End time of the window
+	 * @return Position just past the last row w/ time &lt;= stop
+	 */
+	public int end(int stop) {
+		int lo = 0;
+		int hi = size;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(times[mid] <= stop) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param position Position in the index
+	 * @return Row number in the table of the row at that position
+	 */
+	public int getRow(int position) {
+		return rows[position];
+	}
+
+	/**
+	 * Returns the array backing the index, w/o copying it. An in order
+	 * 	update may write past size() & a merge replaces the array, but the
+	 * 	first size() entries of an array are never changed once returned,
+	 * 	so read only up to the size() taken along w/ it.
+	 * @return Row numbers of the index in [0, size())
+	 */
+	public int[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * @param position Position in the index
+	 * @return Time of the row at that position
+	 */
+	public int getTime(int position) {
+		return times[position];
+	}
+}
@@ -0,0 +1,313 @@
+package com.dbs.gps.gui;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.XYPlot;
+
+import com.dbs.gps.data.IdIndex;
+import com.dbs.gps.data.RaDecLoader;
+import com.dbs.gps.data.RaDecTable;
+
+/**
+ * Renders plots to PNG files w/o a display, one per job of a time window, ID
+ * set & image size. The RaDec files are loaded once into a single table
+ * shared by every job, & jobs are rendered in parallel on a fixed pool of
+ * threads, each w/ a chart & RaDecDataset of its own over the table.
+ *
+ * <p>Usage: BatchRenderer [jobs file] [output dir] [threads] [radec files...]
+ * <br>w/ 0 threads meaning one per processor.</p>
+ *
+ * <p>Each line of the jobs file is a job:
+ * <pre>start stop ids width height [name]</pre>
+ * where start & stop may be * for the table's first & last time, ids is
+ * "all" or a comma separated list of IDs, & name is the PNG file to write,
+ * by default frame-NNNN.png after the job's line. Blank lines & lines
+ * starting w/ # are skipped.</p>
+ *
+ * <p>The RaDec files are read as is, w/o writing RaDecCache sidecars next
+ * to them, unless run w/ -Dbatch.cache=true.</p>
+ *
+ * @author Derek Springer
+ */
+public class BatchRenderer {
+
+	/**
+	 * Table shared by the jobs
+	 */
+	private final RaDecTable table;
+
+	/**
+	 * IDs in the table
+	 */
+	private final Set<Integer> ids;
+
+	/**
+	 * Directory the PNGs are written to
+	 */
+	private final File outputDir;
+
+	/**
+	 * @param table Table of points shared by the jobs
+	 * @param ids IDs in the table, for jobs of all IDs
+	 * @param outputDir Directory to write the PNGs to
+	 */
+	public BatchRenderer(RaDecTable table, Set<Integer> ids, File outputDir) {
+		this.table = table;
+		this.ids = ids;
+		this.outputDir = outputDir;
+
+		// build the shared indexes up front, rather than in the first jobs
+		table.getIdIndex();
+	}
+
+	/**
+	 * Reads jobs from a jobs file
+	 * @param file Jobs file, as described in the class comment
+	 * @return Jobs in file order
+	 * @throws IOException If the file can't be read or a line is malformed
+	 */
+	public List<Job> readJobs(File file) throws IOException {
+		List<Job> jobs = new ArrayList<Job>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int lineNumber = 0;
+			while((line = in.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) continue;
+
+				String[] fields = line.split("\\s+");
+				if(fields.length < 5) {
+					throw new IOException(file + ":" + lineNumber +
+							": expected start stop ids width height [name]");
+				}
+				try {
+					jobs.add(new Job(
+							parseTime(fields[0], table.getStartTime()),
+							parseTime(fields[1], table.getStopTime()),
+							parseIds(fields[2]),
+							Integer.parseInt(fields[3]),
+							Integer.parseInt(fields[4]),
+							fields.length > 5 ? fields[5] :
+									String.format("frame-%04d.png", lineNumber)));
+				} catch(NumberFormatException e) {
+					throw new IOException(
+							file + ":" + lineNumber + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		return jobs;
+	}
+
+	private static int parseTime(String field, int whole) {
+		return field.equals("*") ? whole : Integer.parseInt(field);
+	}
+
+	private Collection<Integer> parseIds(String field) {
+		if(field.equals("all")) return ids;
+
+		Set<Integer> parsed = new TreeSet<Integer>();
+		for(String id : field.split(",")) {
+			parsed.add(Integer.parseInt(id));
+		}
+		return parsed;
+	}
+
+	/**
+	 * Renders the given jobs in parallel, printing progress & the time each
+	 * 	frame took to stdout
+	 * @param jobs Jobs to render
+	 * @param threads Most jobs to render at once
+	 * @return Number of jobs which failed
+	 */
+	public int render(List<Job> jobs, int threads) {
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(
+						r, "BatchRenderer-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		final AtomicInteger done = new AtomicInteger();
+		final int total = jobs.size();
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(total);
+		for(final Job job : jobs) {
+			futures.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					long[] nanos = render(job);
+					System.out.printf("[%d/%d] %s %dx%d, %,d points: " +
+							"query %.1f ms, draw %.1f ms, write %.1f ms%n",
+							done.incrementAndGet(), total, job.name,
+							job.width, job.height, nanos[3],
+							nanos[0] / 1e6, nanos[1] / 1e6, nanos[2] / 1e6);
+					return null;
+				}
+			}));
+		}
+
+		int failed = 0;
+		for(int i = 0; i < total; i++) {
+			try {
+				futures.get(i).get();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				pool.shutdownNow();
+				return failed + total - i;
+			} catch(ExecutionException e) {
+				System.out.println(
+						"Failed " + jobs.get(i).name + ": " + e.getCause());
+				failed++;
+			}
+		}
+		pool.shutdown();
+
+		return failed;
+	}
+
+	/**
+	 * Renders one job to its PNG
+	 * @return Nanoseconds spent querying, drawing & writing, & the number of
+	 * 	points in the window
+	 */
+	private long[] render(Job job) throws IOException {
+		long began = System.nanoTime();
+		RaDecDataset dataset = new RaDecDataset(table);
+		JFreeChart chart = RasterXYPlot.createScatterPlot(
+				null,
+				"Right Ascension",
+				"Declination",
+				dataset);
+		chart.setAntiAlias(false);
+		XYPlot plot = chart.getXYPlot();
+		dataset.setWindow(job.start, job.stop, job.ids);
+		dataset.setResolution(
+				plot.getDomainAxis(), plot.getRangeAxis(), job.width, job.height);
+		long points = 0;
+		IdIndex index = table.getIdIndex();
+		for(int id : job.ids) {
+			IdIndex.Posting posting = index.get(id);
+			if(posting != null) {
+				points += Math.max(0,
+						posting.end(job.stop) - posting.first(job.start));
+			}
+		}
+		long queried = System.nanoTime();
+
+		BufferedImage image = chart.createBufferedImage(job.width, job.height);
+		long drawn = System.nanoTime();
+
+		ImageIO.write(image, "png", new File(outputDir, job.name));
+		long written = System.nanoTime();
+
+		return new long[] {
+				queried - began, drawn - queried, written - drawn, points };
+	}
+
+	/**
+	 * One PNG to render
+	 */
+	public static class Job {
+		final int start;
+		final int stop;
+		final Collection<Integer> ids;
+		final int width;
+		final int height;
+		final String name;
+
+		/**
+		 * @param start Start time of window
+		 * @param stop End time of window
+		 * @param ids Collection of IDs to plot
+		 * @param width Width of the image
+		 * @param height Height of the image
+		 * @param name Name of the PNG file
+		 */
+		public Job(
+				int start,
+				int stop,
+				Collection<Integer> ids,
+				int width,
+				int height,
+				String name) {
+
+			this.start = start;
+			this.stop = stop;
+			this.ids = ids;
+			this.width = width;
+			this.height = height;
+			this.name = name;
+		}
+	}
+
+	public static void main(String[] args) {
+		if(args.length < 4) {
+			System.out.println(
+					"Usage: BatchRenderer [jobs file] [output dir] [threads] [radec files...]");
+			System.exit(2);
+		}
+		System.setProperty("java.awt.headless", "true");
+
+		File jobsFile = new File(args[0]);
+		File outputDir = new File(args[1]);
+		int threads = Integer.parseInt(args[2]);
+		if(threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+		List<File> files = new ArrayList<File>();
+		for(String path : Arrays.asList(args).subList(3, args.length)) {
+			files.add(new File(path));
+		}
+
+		try {
+			long began = System.nanoTime();
+			Set<Integer> ids = new TreeSet<Integer>();
+			RaDecLoader loader = new RaDecLoader();
+			loader.setUseCache(Boolean.getBoolean("batch.cache"));
+			RaDecTable table = loader.load(files, new RaDecTable(), ids);
+			System.out.printf("Loaded %,d rows, %d ids in %.1f ms%n",
+					table.size(), ids.size(), (System.nanoTime() - began) / 1e6);
+
+			outputDir.mkdirs();
+			BatchRenderer renderer = new BatchRenderer(table, ids, outputDir);
+			List<Job> jobs = renderer.readJobs(jobsFile);
+			began = System.nanoTime();
+			int failed = renderer.render(jobs, threads);
+			System.out.printf("Rendered %d of %d frames on %d threads in %.1f ms%n",
+					jobs.size() - failed, jobs.size(), threads,
+					(System.nanoTime() - began) / 1e6);
+			System.exit(failed == 0 ? 0 : 1);
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.dbs.gps.gui;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.EventQueue;
+import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -12,14 +13,16 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
@@ -27,9 +30,16 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 import javax.swing.BoxLayout;
+import javax.swing.ButtonGroup;
+import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -37,17 +47,28 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
-import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
-import org.jfree.chart.plot.PlotOrientation;
-import org.jfree.data.Range;
-import org.jfree.data.xy.DefaultXYDataset;
+import org.jfree.chart.event.AxisChangeEvent;
+import org.jfree.chart.event.AxisChangeListener;
+import org.jfree.chart.event.ChartProgressEvent;
+import org.jfree.chart.event.ChartProgressListener;
+import org.jfree.chart.plot.XYPlot;
 
 import com.dbs.gps.data.RaDec;
+import com.dbs.gps.data.RaDecFollower;
+import com.dbs.gps.data.RaDecLoader;
+import com.dbs.gps.data.RaDecMerger;
+import com.dbs.gps.data.RaDecTable;
+import com.dbs.gps.perf.EdtWatchdog;
+import com.dbs.gps.perf.Instrumentation;
 
 
 /**
@@ -58,17 +79,33 @@ public class GPSPlotterGUI extends JFrame {
 	private static final long serialVersionUID = 
 			"$Id: GPSPlotterGUI.java 2606 2011-10-05 00:02:53Z derek.springer $".hashCode();
 
-	private static final JFreeChart EMPTY_CHART = 
-			ChartFactory.createScatterPlot(
-					null,
-					"Right Ascension",
-					"Declination",
-					new DefaultXYDataset(),
-					PlotOrientation.VERTICAL,
-					true, 
-					true,
-					false );
-
+	/**
+	 * Size of the chunks files are loaded in, small enough that the plot fills
+	 * in steadily while a load runs
+	 */
+	private static final long LOAD_CHUNK_SIZE = 8L << 20;
+	
+	/**
+	 * Least time between re-plots while data is arriving, in ms
+	 */
+	private static final int PLOT_INTERVAL = 1000;
+	
+	/**
+	 * Time between checks of followed files, in ms
+	 */
+	private static final int FOLLOW_POLL_INTERVAL = 1000;
+	
+	/**
+	 * Least time between live re-plots while a thumb is dragged, in ms
+	 */
+	private static final int MIN_FRAME_INTERVAL = 16;
+	
+	/**
+	 * Most time to wait for workers to let go of points before freeing its
+	 * 	columns, in ms
+	 */
+	private static final long CLOSE_WAIT_MILLIS = 10000;
+	
 	/**
 	 * Properties for the GUI, default located in inc/application.properties
 	 */
@@ -77,7 +114,7 @@ public class GPSPlotterGUI extends JFrame {
 	/**
 	 * The chart to display the traces on
 	 */
-	private ChartPanel chartPanel = new ChartPanel(EMPTY_CHART);
+	private ChartPanel chartPanel = null;
 	
 	/**
 	 * Slider to select the time scale
@@ -85,30 +122,183 @@ public class GPSPlotterGUI extends JFrame {
 	private RangeSlider timeSlider = new RangeSlider(); 
 	
 	/**
-	 * List to store all the RaDec points
+	 * Table to store all the RaDec points, on or off the heap as the
+	 * 	table.storage property says
 	 */
-	private List<RaDec> points = new ArrayList<RaDec>();
+	private RaDecTable points;
 	
 	/**
-	 * The currently selected set of points
+	 * The plotted window of points, shown by the one chart for the life of
+	 * 	the GUI
 	 */
-	private Set<Integer> selectedIds = new TreeSet<Integer>();
+	private RaDecDataset dataset;
+	
+	/**
+	 * Merges loaded rows into points skipping duplicates, or null to keep
+	 * 	every row
+	 */
+	private RaDecMerger merger = null;
+	
+	/**
+	 * All the IDs found in points
+	 */
+	private Set<Integer> ids = new TreeSet<Integer>();
+	
+	/**
+	 * Loads files into points in parallel
+	 */
+	private RaDecLoader loader = new RaDecLoader(
+			Runtime.getRuntime().availableProcessors(), LOAD_CHUNK_SIZE);
+	
+	/**
+	 * Caches the loader had failed to write by the end of the last load
+	 */
+	private int cacheFailures = 0;
+	
+	/**
+	 * The load in progress, or null
+	 */
+	private LoadWorker loadWorker = null;
 	
 	/**
-	 * The range Range to set the chart to
+	 * Enabled while no load is in progress
 	 */
-	private Range range = null;
+	private JMenuItem loadPlotItem = new JMenuItem("Load Plot(s)");
 	
 	/**
-	 * The domain Rainge to set the chart to 
+	 * Enabled while a load is in progress
 	 */
-	private Range domain = null;
+	private JMenuItem cancelLoadItem = new JMenuItem("Cancel Load");
+	
+	/**
+	 * Shows the progress of a load
+	 */
+	private JLabel statusLabel = new JLabel(" ");
+	
+	/**
+	 * Re-plots while data is arriving, at most once per interval
+	 */
+	private Timer plotTimer = null;
+	
+	/**
+	 * Reads rows appended to the loaded files
+	 */
+	private RaDecFollower follower = new RaDecFollower();
+	
+	/**
+	 * Polls the follower while following is on, otherwise null
+	 */
+	private ScheduledExecutorService followService = null;
+	
+	/**
+	 * Bumped whenever the plots are cleared, so a poll which was in flight
+	 * 	at the time is dropped
+	 */
+	private volatile int followGeneration = 0;
+	
+	/**
+	 * Rows polled while a load was in progress or the merger was catching
+	 * 	up, added once it finishes
+	 */
+	private List<RaDecTable> followedRows = new ArrayList<RaDecTable>();
+	
+	/**
+	 * IDs found in followedRows
+	 */
+	private Set<Integer> followedIds = new TreeSet<Integer>();
+	
+	/**
+	 * Whether a slice of catching the merger up w/ points is queued on the
+	 * 	EDT
+	 */
+	private boolean mergerCatchingUp = false;
+	
+	/**
+	 * Whether a followed file was truncated while a load was in progress, so
+	 * 	the followed files are loaded again once it finishes
+	 */
+	private boolean reloadPending = false;
+	
+	/**
+	 * Re-plots the latest window while a thumb is dragged, at most once per
+	 * 	frame interval however many slider events arrive in between
+	 */
+	private Timer frameTimer = null;
+	
+	/**
+	 * Smoothed cost of a frame, re-plot & drawing the chart, in ms
+	 */
+	private double frameMillis = 0;
+	
+	/**
+	 * When the chart started drawing, in ns
+	 */
+	private long drawStarted = 0;
+	
+	/**
+	 * How long the last call to plotPoints took, in ns
+	 */
+	private long lastPlotNanos = 0;
+	
+	/**
+	 * The currently selected set of points
+	 */
+	private Set<Integer> selectedIds = new TreeSet<Integer>();
 	
 	/**
 	 * Keep track of thum movements
 	 */
 	private boolean thumbMoved = false;
 	
+	/**
+	 * The time-lapse playing, or null
+	 */
+	private Playback playback = null;
+	
+	/**
+	 * Starts & stops playback
+	 */
+	private JButton playButton = new JButton("Play");
+	
+	/**
+	 * Time the window moves per second of playback
+	 */
+	private JSpinner speedSpinner = new JSpinner(
+			new SpinnerNumberModel(60, 1, Integer.MAX_VALUE, 10));
+	
+	/**
+	 * Figures of the Instrumentation drawn over the chart, when turned on
+	 */
+	private PerformanceOverlay overlay = new PerformanceOverlay();
+	
+	/**
+	 * Redraws the overlay while it is shown, so it keeps up w/ loads & plots
+	 */
+	private Timer overlayTimer = null;
+	
+	/**
+	 * Times the events on the EDT & samples its stack through freezes
+	 */
+	private EdtWatchdog watchdog = null;
+	
+	/**
+	 * Frame of playback shown in place of the chart
+	 */
+	private BufferedImage frameImage = null;
+	
+	/**
+	 * Shows the frames of playback in place of the chart while playing
+	 */
+	private JPanel framePanel = new JPanel() {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected void paintComponent(Graphics g) {
+			super.paintComponent(g);
+			if(frameImage != null) g.drawImage(frameImage, 0, 0, null);
+		}
+	};
+	
 	/**
 	 * A plotter to display GPS trajectories
 	 * @param properties Properties for the GUI
@@ -116,6 +306,13 @@ public class GPSPlotterGUI extends JFrame {
 	public GPSPlotterGUI(Properties properties) {
 		super("GPS Plotter");
 		this.properties = properties;
+		points = new RaDecTable(getStorage(properties));
+		dataset = new RaDecDataset(points);
+		setMergePolicy(properties.getProperty("merge.policy", ""));
+		Instrumentation.register();
+		watchdog = EdtWatchdog.install(
+				Long.parseLong(properties.getProperty("watchdog.millis", "100")),
+				Long.parseLong(properties.getProperty("watchdog.sample", "10")));
 		
 		URL logoURL = getClass().getResource("/img/logo.gif");
 		try {
@@ -148,8 +345,54 @@ public class GPSPlotterGUI extends JFrame {
 		final JPanel panel = new JPanel(new BorderLayout());
 		add(panel);
 		
+		JFreeChart chart = RasterXYPlot.createScatterPlot(
+				null,
+				"Right Ascension",
+				"Declination",
+				dataset);
+		chart.setAntiAlias(false);
+		((RasterXYPlot)chart.getXYPlot()).setCache(new RasterCache(1024L * 1024L *
+				Long.parseLong(properties.getProperty("cache.megabytes", "64"))));
+		chart.addProgressListener(new ChartProgressListener() {
+			@Override
+			public void chartProgress(ChartProgressEvent e) {
+				if(e.getType() == ChartProgressEvent.DRAWING_STARTED) {
+					drawStarted = System.nanoTime();
+				} else if(e.getType() == ChartProgressEvent.DRAWING_FINISHED) {
+					frameDrawn();
+					// the data area is only known once drawn, & shrinks from
+					// the panel by the axes & insets
+					updateResolution();
+				}
+			}
+		});
+		chartPanel = new ChartPanel(chart) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			public void paintComponent(Graphics g) {
+				long began = System.nanoTime();
+				super.paintComponent(g);
+				Instrumentation.record(Instrumentation.PAINT, began, 0);
+			}
+		};
 		panel.add(chartPanel, BorderLayout.CENTER);
 		
+		AxisChangeListener zoomListener = new AxisChangeListener() {
+			@Override
+			public void axisChanged(AxisChangeEvent e) {
+				updateResolution();
+			}
+		};
+		chart.getXYPlot().getDomainAxis().addChangeListener(zoomListener);
+		chart.getXYPlot().getRangeAxis().addChangeListener(zoomListener);
+		chartPanel.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				updateResolution();
+			}
+		});
+		
 		final JPanel sliderPanel = new JPanel();
 		sliderPanel.setLayout(new BoxLayout(sliderPanel, BoxLayout.Y_AXIS));
 		
@@ -171,19 +414,50 @@ public class GPSPlotterGUI extends JFrame {
 		labelPanel.add(endValLabel);
 		sliderPanel.add(labelPanel);
 		
+		final JPanel playPanel = new JPanel();
+		playPanel.add(playButton);
+		playPanel.add(new JLabel("Speed: ", JLabel.LEFT));
+		playPanel.add(speedSpinner);
+		playPanel.add(new JLabel("per second", JLabel.LEFT));
+		sliderPanel.add(playPanel);
+		playButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if(playback == null) {
+					startPlayback();
+				} else {
+					playback.stop();
+				}
+			}
+		});
+		
+		final JPanel statusPanel = new JPanel();
+		statusPanel.add(statusLabel);
+		sliderPanel.add(statusPanel);
+		
 		timeSlider.addChangeListener(new ChangeListener() {
             public void stateChanged(ChangeEvent e) {
                 RangeSlider slider = (RangeSlider) e.getSource();
                 startValLabel.setText(String.valueOf(slider.getValue()));
                 endValLabel.setText(String.valueOf(slider.getUpperValue()));
                 thumbMoved = true;
+                if(slider.getValueIsAdjusting()) scheduleFrame();
             }
         });
 		
+		frameTimer = new Timer(MIN_FRAME_INTERVAL, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if(timeSlider.getValueIsAdjusting()) plotPoints();
+			}
+		});
+		frameTimer.setRepeats(false);
+		
 		timeSlider.addMouseListener(new MouseAdapter() {
 			@Override
 			public void mouseReleased(MouseEvent e) {
 				if(thumbMoved) {
+					frameTimer.stop();
 					plotPoints();
 					thumbMoved = !thumbMoved;
 				}
@@ -208,8 +482,9 @@ public class GPSPlotterGUI extends JFrame {
 		final JMenu fileMenu = new JMenu("File");
 		menuBar.add(fileMenu);
 		
-		final JMenuItem loadPlotItem = new JMenuItem("Load Plot(s)");
 		fileMenu.add(loadPlotItem);
+		fileMenu.add(cancelLoadItem);
+		cancelLoadItem.setEnabled(false);
 		loadPlotItem.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
@@ -218,38 +493,80 @@ public class GPSPlotterGUI extends JFrame {
 				chooser.setMultiSelectionEnabled(true);
 				int val = chooser.showOpenDialog(me);
 				if(val == JFileChooser.APPROVE_OPTION) {
-					File[] files = chooser.getSelectedFiles();
-					try {
-						for(File file : files) {
-							if(file.isFile()) {
-								List<RaDec> raDecs = 
-										RaDec.loadRaDec(file.toURI().toURL());
-								points.addAll(raDecs);
-								selectedIds = RaDec.getIDs(points);
-							}
-						}
-						
-						int[] startStop = RaDec.getRange(points);
-						timeSlider.setMinimum(startStop[0]);
-						timeSlider.setValue(startStop[0]);
-						timeSlider.setMaximum(startStop[1]);
-						timeSlider.setUpperValue(startStop[1]);
-						plotPoints();
-					} catch (MalformedURLException ex) {
-						ex.printStackTrace();
+					List<File> files = new ArrayList<File>();
+					for(File file : chooser.getSelectedFiles()) {
+						if(file.isFile()) files.add(file);
 					}
+					startLoad(files);
 				}
 			}
 		});
 		
+		cancelLoadItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				cancelLoad();
+			}
+		});
+		
 		final JMenuItem clearPlotItem = new JMenuItem("Clear Plots");
 		fileMenu.add(clearPlotItem);
 		clearPlotItem.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				points.clear();
-				selectedIds.clear();
-				chartPanel.setChart(EMPTY_CHART);
+				clearPlots();
+			}
+		});
+
+		final JMenu duplicatesMenu = new JMenu("Duplicates");
+		fileMenu.add(duplicatesMenu);
+		ButtonGroup duplicatesGroup = new ButtonGroup();
+		String[][] policies = {
+				{ "Keep All", "" },
+				{ "First Wins", RaDecMerger.Policy.FIRST_WINS.name() },
+				{ "Last Wins", RaDecMerger.Policy.LAST_WINS.name() },
+				{ "Flag Mismatches", RaDecMerger.Policy.FLAG_MISMATCHES.name() } };
+		for(final String[] policy : policies) {
+			JRadioButtonMenuItem policyItem = new JRadioButtonMenuItem(
+					policy[0], policy[1].equals(getMergePolicy()));
+			duplicatesGroup.add(policyItem);
+			duplicatesMenu.add(policyItem);
+			policyItem.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					setMergePolicy(policy[1]);
+				}
+			});
+		}
+
+		final JCheckBoxMenuItem followItem = 
+				new JCheckBoxMenuItem("Follow Files");
+		fileMenu.add(followItem);
+		followItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				setFollowing(followItem.isSelected());
+			}
+		});
+
+		final JMenuItem freezeReportItem = 
+				new JMenuItem("Save Freeze Report");
+		fileMenu.add(freezeReportItem);
+		freezeReportItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				final JFileChooser chooser = 
+					new JFileChooser(System.getProperty("user.dir"));
+				chooser.setSelectedFile(new File("freezes.txt"));
+				int val = chooser.showSaveDialog(me);
+				if(val == JFileChooser.APPROVE_OPTION) {
+					try {
+						watchdog.writeReport(chooser.getSelectedFile());
+						statusLabel.setText(watchdog.toString());
+					} catch(IOException ex) {
+						ex.printStackTrace();
+					}
+				}
 			}
 		});
 
@@ -263,6 +580,30 @@ public class GPSPlotterGUI extends JFrame {
 			}
 		});
 		
+		final JMenu viewMenu = new JMenu("View");
+		menuBar.add(viewMenu);
+		
+		final JCheckBoxMenuItem rasterItem = 
+				new JCheckBoxMenuItem("Fast Rendering", true);
+		viewMenu.add(rasterItem);
+		rasterItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				((RasterXYPlot)chartPanel.getChart().getXYPlot())
+						.setRasterEnabled(rasterItem.isSelected());
+			}
+		});
+		
+		final JCheckBoxMenuItem overlayItem = 
+				new JCheckBoxMenuItem("Performance Overlay");
+		viewMenu.add(overlayItem);
+		overlayItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				setOverlayShown(overlayItem.isSelected());
+			}
+		});
+		
 		final JMenu selectMenu = new JMenu("Select");
 		menuBar.add(selectMenu);
 		
@@ -272,7 +613,7 @@ public class GPSPlotterGUI extends JFrame {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				SelectIdDialogue select = new SelectIdDialogue(
-						me, RaDec.getIDs(points), selectedIds, 5);
+						me, ids, selectedIds, 5);
 				select.setVisible(true);
 				if(select.getChoice() == SelectIdDialogue.SELECTED) {
 					selectedIds = select.getSelectedIDs();
@@ -282,7 +623,562 @@ public class GPSPlotterGUI extends JFrame {
 		});
 	}
 	
+	/**
+	 * Shows or hides the performance overlay, redrawing it twice a second
+	 * 	while shown
+	 * @param shown Whether to show the overlay
+	 */
+	private void setOverlayShown(boolean shown) {
+		if(shown == (overlayTimer != null)) return;
+		
+		if(!shown) {
+			overlayTimer.stop();
+			overlayTimer = null;
+			chartPanel.removeOverlay(overlay);
+			return;
+		}
+		
+		chartPanel.addOverlay(overlay);
+		overlayTimer = new Timer(500, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				overlay.fireOverlayChanged();
+			}
+		});
+		overlayTimer.start();
+	}
+	
+	/**
+	 * @param properties Properties for the GUI
+	 * @return Where to keep the loaded rows, from table.storage, or HEAP if
+	 * 	it isn't set or names no RaDecTable.Storage
+	 */
+	private static RaDecTable.Storage getStorage(Properties properties) {
+		String storage = properties.getProperty("table.storage", "HEAP");
+		try {
+			return RaDecTable.Storage.valueOf(storage.trim().toUpperCase());
+		} catch(IllegalArgumentException e) {
+			System.out.println("Unknown table.storage " + storage +
+					", keeping the rows on the heap");
+			return RaDecTable.Storage.HEAP;
+		}
+	}
+	
+	/**
+	 * Sets how rows loaded from here on are merged into points
+	 * @param policy Name of a RaDecMerger.Policy, or anything else to keep
+	 * 	every row
+	 */
+	private void setMergePolicy(String policy) {
+		merger = null;
+		for(RaDecMerger.Policy p : RaDecMerger.Policy.values()) {
+			if(p.name().equals(policy)) merger = new RaDecMerger(points, p);
+		}
+		if(merger != null) catchUpMerger();
+	}
+	
+	/**
+	 * Catches the merger's hash up w/ points a slice at a time on the EDT,
+	 * 	rather than all at once on the next merge, then adds the followed
+	 * 	rows held back meanwhile. A load in progress catches it up itself.
+	 */
+	private void catchUpMerger() {
+		if(mergerCatchingUp) return;
+		mergerCatchingUp = true;
+		EventQueue.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				mergerCatchingUp = false;
+				if(loadWorker != null || merger == null) return;
+				if(!merger.catchUp(
+						System.nanoTime() + LoadWorker.APPEND_BUDGET_NANOS)) {
+					catchUpMerger();
+				} else if(addHeldRows()) {
+					stopPlayback();
+					updateSliderRange(false);
+					schedulePlot();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Adds the followed rows held back during a load, or while the merger
+	 * 	catches up, to points
+	 * @return Whether any were added, false if the merger still has to
+	 * 	catch up first
+	 */
+	private boolean addHeldRows() {
+		if(merger != null && !merger.isCaughtUp()) {
+			catchUpMerger();
+			return false;
+		}
+		boolean added = !followedRows.isEmpty();
+		for(RaDecTable rows : followedRows) addFollowed(rows);
+		followedRows.clear();
+		ids.addAll(followedIds);
+		selectedIds.addAll(followedIds);
+		followedIds.clear();
+		return added;
+	}
+	
+	/**
+	 * @return Name of the RaDecMerger.Policy rows are merged w/, or "" if
+	 * 	every row is kept
+	 */
+	private String getMergePolicy() {
+		return merger == null ? "" : merger.getPolicy().name();
+	}
+	
+	/**
+	 * Stops playback, loading & following & clears the plots
+	 */
+	private void clearPlots() {
+		stopPlayback();
+		cancelLoad();
+		// a cancelled worker still calls back once it winds down, which is
+		// ignored from here on as it's no longer loadWorker
+		LoadWorker cancelled = loadWorker;
+		loadWorker = null;
+		loadPlotItem.setEnabled(true);
+		cancelLoadItem.setEnabled(false);
+		follower.clear();
+		followGeneration++;
+		followedRows.clear();
+		followedIds.clear();
+		reloadPending = false;
+		ids.clear();
+		selectedIds.clear();
+		dataset.clear();
+		((RasterXYPlot)chartPanel.getChart().getXYPlot())
+				.getCache().clear();
+		closePoints(cancelled);
+		// a new merger, so its duplicates & conflicts count from the clear
+		setMergePolicy(getMergePolicy());
+	}
+	
+	/**
+	 * Empties points, then frees its columns if they're off the heap once
+	 * 	the playback workers & the load's index build have let go of the
+	 * 	table. Playback & loading must have been stopped. The wait is on a
+	 * 	thread of its own, so the EDT carries on, & the columns are freed
+	 * 	from a callback on the EDT unless points has been put to use again
+	 * 	by then. If the workers don't stop, the columns are left to the
+	 * 	collector.
+	 * @param cancelled Load worker which was cancelled, or null
+	 */
+	private void closePoints(final LoadWorker cancelled) {
+		points.clear();
+		final Playback stopping = playback;
+		if(stopping == null && cancelled == null) {
+			points.close();
+			return;
+		}
+		
+		Thread closer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if((stopping != null &&
+							!stopping.awaitStopped(CLOSE_WAIT_MILLIS)) ||
+							(cancelled != null &&
+							!cancelled.awaitStopped(CLOSE_WAIT_MILLIS))) {
+						return;
+					}
+				} catch(InterruptedException e) {
+					return;
+				}
+				EventQueue.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if(points.isEmpty() && loadWorker == null &&
+								(playback == null || playback == stopping)) {
+							points.close();
+						}
+					}
+				});
+			}
+		}, "ClosePoints");
+		closer.setDaemon(true);
+		closer.start();
+	}
+	
+	/**
+	 * Loads the given files, disabling Load Plot(s) until the load ends
+	 * @param files RaDec files to load
+	 */
+	private void startLoad(List<File> files) {
+		loadPlotItem.setEnabled(false);
+		cancelLoadItem.setEnabled(true);
+		loadFiles(files, new Runnable() {
+			@Override
+			public void run() {
+				loadPlotItem.setEnabled(true);
+				cancelLoadItem.setEnabled(false);
+			}
+		});
+	}
+	
+	/**
+	 * Clears the plots & loads the followed files again from the start, for
+	 * 	when one of them was truncated & the rows read from it are stale
+	 */
+	private void reloadFollowed() {
+		List<File> files = follower.getFiles();
+		clearPlots();
+		startLoad(files);
+	}
+	
+	/**
+	 * Loads the given files on a LoadWorker, plotting the rows as they arrive
+	 * @param files RaDec files to load
+	 * @param onFinish Run on the EDT once the load has ended
+	 */
+	private void loadFiles(List<File> files, final Runnable onFinish) {
+		stopPlayback();
+		final boolean firstLoad = points.isEmpty();
+		final int generation = followGeneration;
+		// The load reads these from the start, so stop following them until
+		// it has finished
+		for(File file : files) follower.unfollow(file);
+		// a followed file's partly written last line is left to the follower
+		loader.setWholeLinesOnly(followService != null);
+		loadWorker = new LoadWorker(
+				files, loader, points, new LoadWorker.Listener() {
+			@Override
+			public void rowsAdded(LoadWorker worker, Set<Integer> newIds) {
+				if(worker != loadWorker) return;
+				ids.addAll(newIds);
+				selectedIds.addAll(newIds);
+				updateSliderRange(firstLoad);
+				schedulePlot();
+			}
+			
+			@Override
+			public void loadFinished(
+					LoadWorker worker,
+					boolean cancelled,
+					Throwable error) {
+				if(worker != loadWorker) return;
+				if(error != null) error.printStackTrace();
+				if(generation == followGeneration) {
+					for(Map.Entry<File, Long> entry :
+							worker.getLoadedLengths().entrySet()) {
+						follower.follow(entry.getKey(), entry.getValue());
+					}
+				}
+				loadWorker = null;
+				addHeldRows();
+				if(plotTimer != null) plotTimer.stop();
+				String rows = String.format("%,d rows", points.size());
+				if(merger != null) {
+					rows += String.format(", %,d duplicates skipped",
+							merger.getDuplicates());
+					if(merger.getPolicy() == RaDecMerger.Policy.FLAG_MISMATCHES) {
+						rows += String.format(", %,d mismatched",
+								merger.getMismatchedRows().length);
+					}
+				}
+				if(loader.getCacheFailures() > cacheFailures) {
+					rows += ", cache not written";
+					cacheFailures = loader.getCacheFailures();
+				}
+				statusLabel.setText(cancelled ? "Load cancelled, " + rows : rows);
+				onFinish.run();
+				if(reloadPending) {
+					reloadPending = false;
+					reloadFollowed();
+				} else if(!points.isEmpty()) {
+					updateSliderRange(false);
+					plotPoints();
+				}
+			}
+		});
+		loadWorker.setMerger(merger);
+		
+		loadWorker.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				LoadWorker worker = (LoadWorker)evt.getSource();
+				if(worker != loadWorker) return;
+				statusLabel.setText(String.format(
+						"Loading %.1f of %.1f MB, %,d rows",
+						worker.getBytesLoaded() / (1024.0 * 1024.0),
+						worker.getTotalBytes() / (1024.0 * 1024.0),
+						worker.getRowsLoaded()));
+			}
+		});
+		
+		statusLabel.setText("Loading...");
+		loadWorker.execute();
+	}
+	
+	/**
+	 * Cancels the load in progress, keeping the rows loaded so far
+	 */
+	private void cancelLoad() {
+		if(loadWorker != null) {
+			loadWorker.cancel(true);
+		}
+	}
+	
+	/**
+	 * Widens the slider to the time range of points. The thumbs follow the
+	 * 	range when it is the first load or they were already at its ends.
+	 * @param firstLoad Whether points was empty when the load started
+	 */
+	private void updateSliderRange(boolean firstLoad) {
+		int[] startStop = RaDec.getRange(points);
+		boolean atStart = firstLoad ||
+				timeSlider.getValue() == timeSlider.getMinimum();
+		boolean atStop = firstLoad ||
+				timeSlider.getUpperValue() == timeSlider.getMaximum();
+		timeSlider.setMinimum(startStop[0]);
+		timeSlider.setMaximum(startStop[1]);
+		if(atStart) timeSlider.setValue(startStop[0]);
+		if(atStop) timeSlider.setUpperValue(startStop[1]);
+	}
+	
+	/**
+	 * Re-plots once the interval since the last re-plot has passed. The
+	 * 	interval stretches to 10x the time the last plot took, so plotting
+	 * 	never takes more than a tenth of the EDT while data arrives.
+	 */
+	private void schedulePlot() {
+		if(plotTimer != null && plotTimer.isRunning()) return;
+		
+		int delay = (int)Math.max(PLOT_INTERVAL, 10 * lastPlotNanos / 1000000);
+		plotTimer = new Timer(delay, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				plotPoints();
+			}
+		});
+		plotTimer.setRepeats(false);
+		plotTimer.start();
+	}
+	
+	/**
+	 * Queues a live re-plot of the slider's window while a thumb is dragged.
+	 * 	Slider events which arrive before it runs are coalesced into it, & it
+	 * 	reads the slider when it runs, so only the latest window is queried.
+	 * 	Swing coalesces the repaints too, so a frame the next one overtakes is
+	 * 	never drawn. The frame rate adapts to the cost of a frame, leaving a
+	 * 	third of the EDT for the drag itself.
+	 */
+	private void scheduleFrame() {
+		if(frameTimer.isRunning()) return;
+		
+		frameTimer.setInitialDelay(
+				(int)Math.max(MIN_FRAME_INTERVAL, 1.5 * frameMillis));
+		frameTimer.start();
+	}
+	
+	/**
+	 * Folds the time the last re-plot & drawing took into the smoothed frame
+	 * 	cost
+	 */
+	private void frameDrawn() {
+		double millis = (System.nanoTime() - drawStarted + lastPlotNanos) / 1e6;
+		frameMillis = frameMillis == 0 ? millis : 0.75 * frameMillis + 0.25 * millis;
+	}
+	
+	/**
+	 * Decimates the plotted points for the current zoom & size of the chart's
+	 * 	data area, or of the whole panel until the chart has been drawn
+	 */
+	private void updateResolution() {
+		XYPlot plot = chartPanel.getChart().getXYPlot();
+		Rectangle2D area = chartPanel.getScreenDataArea();
+		int width = (int)Math.ceil(area.getWidth());
+		int height = (int)Math.ceil(area.getHeight());
+		if(width <= 0 || height <= 0) {
+			width = chartPanel.getWidth();
+			height = chartPanel.getHeight();
+		}
+		dataset.setResolution(
+				plot.getDomainAxis(), plot.getRangeAxis(), width, height);
+	}
+	
+	/**
+	 * Plays the slider's window across to the end of the time range, w/ the
+	 * 	chart's axes & size, at the chosen speed. Frames are rendered ahead on
+	 * 	a Playback & shown in place of the chart until playback ends.
+	 */
+	private void startPlayback() {
+		int start = timeSlider.getValue();
+		int width = timeSlider.getUpperValue() - start;
+		int end = timeSlider.getMaximum();
+		if(points.isEmpty() || width <= 0 || start + width >= end) return;
+		
+		int fps = Integer.parseInt(properties.getProperty("playback.fps", "25"));
+		int threads = Runtime.getRuntime().availableProcessors();
+		int ahead = Integer.parseInt(properties.getProperty(
+				"playback.ahead", Integer.toString(4 * threads)));
+		int speed = (Integer)speedSpinner.getValue();
+		XYPlot plot = chartPanel.getChart().getXYPlot();
+		
+		playback = new Playback(
+				points,
+				selectedIds,
+				plot.getRenderer(),
+				start,
+				width,
+				end,
+				Math.max(1, Math.round(speed / (float)fps)),
+				plot.getDomainAxis().getRange(),
+				plot.getRangeAxis().getRange(),
+				chartPanel.getWidth(),
+				chartPanel.getHeight(),
+				fps,
+				ahead,
+				threads,
+				new Playback.Listener() {
+			@Override
+			public void frameShown(Playback.Frame frame) {
+				frameImage = frame.image;
+				framePanel.repaint();
+				timeSlider.getModel().setRangeProperties(
+						frame.start, frame.stop - frame.start,
+						timeSlider.getMinimum(), timeSlider.getMaximum(), false);
+				statusLabel.setText(String.format(
+						"Playing frame %d of %d, %d dropped",
+						frame.index + 1, playback.getFrameCount(),
+						playback.getDropped()));
+			}
+			
+			@Override
+			public void playbackFinished(Playback finished) {
+				statusLabel.setText(String.format(
+						"Played %d of %d frames, %d dropped, %.1f fps",
+						finished.getShown(), finished.getFrameCount(),
+						finished.getDropped(), finished.getFramesPerSecond()));
+				playback = null;
+				frameImage = null;
+				JPanel panel = (JPanel)framePanel.getParent();
+				panel.remove(framePanel);
+				panel.add(chartPanel, BorderLayout.CENTER);
+				panel.revalidate();
+				panel.repaint();
+				playButton.setText("Play");
+				plotPoints();
+			}
+		});
+		
+		framePanel.setPreferredSize(chartPanel.getSize());
+		JPanel panel = (JPanel)chartPanel.getParent();
+		panel.remove(chartPanel);
+		panel.add(framePanel, BorderLayout.CENTER);
+		panel.revalidate();
+		panel.repaint();
+		playButton.setText("Stop");
+		playback.start();
+	}
+	
+	/**
+	 * Stops playback if playing, going back to the chart
+	 */
+	private void stopPlayback() {
+		if(playback != null) playback.stop();
+	}
+	
+	/**
+	 * Starts or stops polling the loaded files for appended rows
+	 * @param follow Whether to follow the files
+	 */
+	private void setFollowing(boolean follow) {
+		if(follow == (followService != null)) return;
+		
+		if(!follow) {
+			followService.shutdownNow();
+			followService = null;
+			return;
+		}
+		
+		followService = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "RaDecFollower");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		followService.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				pollFollower();
+			}
+		}, 0, FOLLOW_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Reads the rows appended to the followed files & hands them to the EDT,
+	 * 	which holds them back while a load is in progress. Runs on the follow
+	 * 	thread.
+	 */
+	private void pollFollower() {
+		final int generation = followGeneration;
+		final Set<Integer> newIds = new TreeSet<Integer>();
+		final Set<File> truncated = new TreeSet<File>();
+		final RaDecTable rows;
+		try {
+			rows = follower.poll(newIds, truncated);
+		} catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		if(rows.isEmpty() && truncated.isEmpty()) return;
+		
+		EventQueue.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if(generation != followGeneration) return;
+				if(!truncated.isEmpty()) {
+					// The rows read from a truncated file are stale, so start
+					// over rather than plot them alongside its new contents
+					if(loadWorker != null) {
+						reloadPending = true;
+					} else {
+						reloadFollowed();
+					}
+					return;
+				}
+				if(loadWorker != null ||
+						(merger != null && !merger.isCaughtUp())) {
+					followedRows.add(rows);
+					followedIds.addAll(newIds);
+					if(loadWorker == null) catchUpMerger();
+					return;
+				}
+				stopPlayback();
+				addFollowed(rows);
+				ids.addAll(newIds);
+				selectedIds.addAll(newIds);
+				updateSliderRange(false);
+				schedulePlot();
+			}
+		});
+	}
+	
+	/**
+	 * Adds rows read by the follower to points, through the merger if any
+	 * @param rows Rows appended to the followed files
+	 */
+	private void addFollowed(RaDecTable rows) {
+		if(merger != null) {
+			merger.addAll(rows);
+		} else {
+			points.addAll(rows);
+		}
+	}
+	
 	private void closeGUI() {
+		stopPlayback();
+		setOverlayShown(false);
+		cancelLoad();
+		setFollowing(false);
+		clearPlots();
 		properties.setProperty(
 				"loc.x", Integer.toString(getLocation().x));
 		properties.setProperty(
@@ -291,6 +1187,7 @@ public class GPSPlotterGUI extends JFrame {
 				"size.width", Integer.toString(getSize().width));
 		properties.setProperty(
 				"size.height", Integer.toString(getSize().height));
+		properties.setProperty("merge.policy", getMergePolicy());
 		
 		File propertiesFile = new File(properties.getProperty("self.path"));
 		try {
@@ -317,61 +1214,13 @@ public class GPSPlotterGUI extends JFrame {
 	}
 	
 	public void plotPoints() {
-		Map<Integer, List<RaDec>> pointsById = RaDec.groupByID(
-				RaDec.filterById(
-						RaDec.filterByRange(
-								points,
-								timeSlider.getValue(),
-								timeSlider.getUpperValue()),
-				selectedIds));
-		DefaultXYDataset dataset = new DefaultXYDataset();
-		for(Integer key : pointsById.keySet()) {
-			double[][] data = new double[2][pointsById.get(key).size()];
-			for(int i = 0; i < pointsById.get(key).size(); i++) {
-				data[0][i] = pointsById.get(key).get(i).getRightAscension();
-				data[1][i] = pointsById.get(key).get(i).getDeclination();
-			}
-			dataset.addSeries(key, data);
-		}
-		
-		JFreeChart chart = ChartFactory.createScatterPlot(
-				null,
-				"Right Ascension",
-				"Declination",
-				dataset,
-				PlotOrientation.VERTICAL,
-				true, 
-				true,
-				false);
-		
-		Range thisRange = chart.getXYPlot().getRangeAxis().getRange();
-		if(range == null) {
-			range = thisRange;
-		} else {
-			range = new Range(
-					thisRange.getLowerBound() < range.getLowerBound() ?
-							thisRange.getLowerBound() : range.getLowerBound(),
-					thisRange.getUpperBound() > range.getUpperBound() ?
-							thisRange.getUpperBound() : range.getUpperBound());
-		}
-		chart.getXYPlot().getRangeAxis().setAutoRange(false);
-		chart.getXYPlot().getRangeAxis().setRange(range);
-		
-		Range thisDomain = chart.getXYPlot().getDomainAxis().getRange();
-		if(domain == null) {
-			domain = thisDomain;
-		} else {
-			domain = new Range(
-					thisDomain.getLowerBound() < domain.getLowerBound() ?
-							thisDomain.getLowerBound() : domain.getLowerBound(),
-					thisDomain.getUpperBound() > domain.getUpperBound() ?
-							thisDomain.getUpperBound() : domain.getUpperBound());
-		}
-		chart.getXYPlot().getDomainAxis().setAutoRange(false);
-		chart.getXYPlot().getDomainAxis().setRange(domain);
-		
-		chart.setAntiAlias(false);
-		chartPanel.setChart(chart);
+		long began = System.nanoTime();
+		dataset.setWindow(
+				timeSlider.getValue(),
+				timeSlider.getUpperValue(),
+				selectedIds);
+		lastPlotNanos = System.nanoTime() - began;
+		Instrumentation.setDatasetBytes(points.getMemoryEstimate());
 	}
 
 	public static void main(final String[] args) {
@@ -385,12 +1234,12 @@ public class GPSPlotterGUI extends JFrame {
 				
 				File propertiesFile = new File(propertiesPath);
 				Properties properties = new Properties();
+				String status = null;
 				try {
 					properties.load(
 							new BufferedReader(new FileReader(propertiesFile)));
 				} catch (IOException e) {
-					System.out.println(
-							propertiesFile + " not found, using defaults");
+					status = propertiesFile + " not found, using defaults";
 				}
 				properties.setProperty("self.path", propertiesFile.getPath());
 
@@ -404,6 +1253,7 @@ public class GPSPlotterGUI extends JFrame {
 						properties.getProperty("size.height", "500"));
 				gui.setSize(width, height);
 				gui.setLocation(new Point(x,y));
+				if(status != null) gui.statusLabel.setText(status);
 				gui.setVisible(true);
 			}
 		});
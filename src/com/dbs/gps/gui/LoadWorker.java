@@ -0,0 +1,364 @@
+package com.dbs.gps.gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import com.dbs.gps.data.RaDecLoader;
+import com.dbs.gps.data.RaDecMerger;
+import com.dbs.gps.data.RaDecTable;
+
+/**
+ * Loads RaDec files on a background thread. Each chunk is published as soon
+ * as it is parsed & appended to the plotted table on the EDT in slices, a
+ * few milliseconds of copying at a time, so the GUI stays responsive &
+ * fills in while a large file loads. Progress is reported in bytes through
+ * the "progress" property & the byte/row getters. Once every row has been
+ * appended, the worker builds the table's ID index & bounds before the load
+ * finishes, so the first plot after it doesn't build them on the EDT.
+ *
+ * <p>Given a RaDecMerger, rows are merged into the table through it rather
+ * than appended, so rows already in the table are skipped.</p>
+ *
+ * @author Derek Springer
+ */
+public class LoadWorker extends SwingWorker<Void, LoadWorker.Batch> {
+
+	/**
+	 * Most time to spend appending rows in one EDT task
+	 */
+	static final long APPEND_BUDGET_NANOS = 4000000;
+
+	/**
+	 * Most rows to copy in one go, so the budget is checked often enough
+	 */
+	private static final int SLICE_ROWS = 1 << 16;
+
+	/**
+	 * Published after the last chunk, drain counts appended down on reaching
+	 * 	it
+	 */
+	private static final Batch END = new Batch(null, null);
+
+	/**
+	 * Receives updates about the load on the EDT
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after rows have been appended to the table
+		 * @param worker The worker which appended them
+		 * @param ids IDs found in the rows
+		 */
+		void rowsAdded(LoadWorker worker, Set<Integer> ids);
+
+		/**
+		 * Called once the load has ended & every row has been appended
+		 * @param worker The worker whose load ended
+		 * @param cancelled Whether the load was cancelled
+		 * @param error What stopped the load, or null
+		 */
+		void loadFinished(LoadWorker worker, boolean cancelled, Throwable error);
+	}
+
+	private final List<File> files;
+
+	private final RaDecLoader loader;
+
+	/**
+	 * Table the rows are appended to, only touched on the EDT
+	 */
+	private final RaDecTable points;
+
+	private final Listener listener;
+
+	/**
+	 * Merges rows into points, or null to append every row. Only touched on
+	 * 	the EDT.
+	 */
+	private RaDecMerger merger = null;
+
+	/**
+	 * Total size of the files
+	 */
+	private final long totalBytes;
+
+	/**
+	 * Bytes of the files parsed so far
+	 */
+	private volatile long bytesLoaded = 0;
+
+	/**
+	 * Rows parsed so far
+	 */
+	private volatile long rowsLoaded = 0;
+
+	/**
+	 * Length of each file which has been loaded
+	 */
+	private final Map<File, Long> loadedLengths =
+			new ConcurrentHashMap<File, Long>();
+
+	/**
+	 * Batches waiting to be appended, only touched on the EDT
+	 */
+	private final LinkedList<Batch> pending = new LinkedList<Batch>();
+
+	/**
+	 * Whether a drain task is queued on the EDT
+	 */
+	private boolean draining = false;
+
+	/**
+	 * Set by done(), the listener hears once pending is empty too
+	 */
+	private boolean finished = false;
+
+	/**
+	 * Counted down once every chunk has been appended to the table
+	 */
+	private final CountDownLatch appended = new CountDownLatch(1);
+
+	/**
+	 * Set by whichever comes first of doInBackground starting & awaitStopped
+	 * 	finding it hasn't, which then keeps it from touching the table
+	 */
+	private final AtomicBoolean started = new AtomicBoolean(false);
+
+	/**
+	 * Counted down once doInBackground has returned
+	 */
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * @param files RaDec files to load
+	 * @param loader Loader to load them with
+	 * @param points Table to append rows to
+	 * @param listener Listener to update on the EDT
+	 */
+	public LoadWorker(
+			List<File> files,
+			RaDecLoader loader,
+			RaDecTable points,
+			Listener listener) {
+
+		this.files = files;
+		this.loader = loader;
+		this.points = points;
+		this.listener = listener;
+
+		long total = 0;
+		for(File file : files) {
+			total += file.length();
+		}
+		this.totalBytes = total;
+	}
+
+	/**
+	 * @param merger Merger to merge rows into the table w/, or null to append
+	 * 	every row. Set before the worker is executed; its hash is sized for
+	 * 	the rows the files are expected to hold.
+	 */
+	public void setMerger(RaDecMerger merger) {
+		this.merger = merger;
+		if(merger != null) {
+			merger.expect((int)Math.min(Integer.MAX_VALUE - 8,
+					totalBytes / RaDecLoader.BYTES_PER_ROW_ESTIMATE));
+		}
+	}
+
+	@Override
+	protected Void doInBackground() throws IOException, InterruptedException {
+		if(!started.compareAndSet(false, true)) return null;
+		try {
+			load();
+		} finally {
+			stopped.countDown();
+		}
+		return null;
+	}
+
+	/**
+	 * Loads the files, then builds the table's indexes once every row has
+	 * 	been appended
+	 */
+	private void load() throws IOException, InterruptedException {
+		loader.load(files, new RaDecLoader.Listener() {
+			@Override
+			public void chunkLoaded(
+					RaDecTable chunk,
+					Set<Integer> ids,
+					long bytes) {
+				bytesLoaded += bytes;
+				rowsLoaded += chunk.size();
+				publish(new Batch(chunk, ids));
+				setProgress(totalBytes == 0 ? 100 :
+					(int)Math.min(100, 100 * bytesLoaded / totalBytes));
+			}
+
+			@Override
+			public void fileLoaded(File file, long length) {
+				loadedLengths.put(file, length);
+			}
+		});
+
+		// the EDT is done w/ the table once END is drained, so the indexes
+		// can be built here rather than by the first plot
+		publish(END);
+		appended.await();
+		points.buildIndexes();
+	}
+
+	/**
+	 * Waits for doInBackground to return, after which the worker no longer
+	 * 	reads the table. A worker which never started won't start after
+	 * 	this.
+	 * @param millis Most milliseconds to wait
+	 * @return Whether the worker stopped in time
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public boolean awaitStopped(long millis) throws InterruptedException {
+		if(started.compareAndSet(false, true)) return true;
+		return stopped.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	protected void process(List<Batch> batches) {
+		if(isCancelled()) return;
+		pending.addAll(batches);
+		scheduleDrain();
+	}
+
+	@Override
+	protected void done() {
+		finished = true;
+		if(isCancelled()) pending.clear();
+		scheduleDrain();
+	}
+
+	private void scheduleDrain() {
+		if(draining) return;
+		draining = true;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				draining = false;
+				drain();
+			}
+		});
+	}
+
+	/**
+	 * Appends pending rows until the budget runs out, then requeues itself so
+	 * 	other events get a turn. The merger's hash is caught up w/ the table
+	 * 	in slices first, so a new merger over a large table doesn't stall
+	 * 	the EDT.
+	 */
+	private void drain() {
+		if(isCancelled()) pending.clear();
+		long began = System.nanoTime();
+		while(!pending.isEmpty() &&
+				System.nanoTime() - began < APPEND_BUDGET_NANOS) {
+			if(merger != null &&
+					!merger.catchUp(began + APPEND_BUDGET_NANOS)) {
+				break;
+			}
+			// a cached file is copied in slices too rather than shared, as
+			// the next append to a shared read only table would copy it all
+			// in one go
+			Batch batch = pending.getFirst();
+			if(batch == END) {
+				pending.removeFirst();
+				appended.countDown();
+				continue;
+			}
+			int length = Math.min(
+					SLICE_ROWS, batch.table.size() - batch.offset);
+			if(merger != null) {
+				merger.addAll(batch.table, batch.offset, length);
+			} else {
+				points.addAll(batch.table, batch.offset, length);
+			}
+			batch.offset += length;
+			if(batch.offset == batch.table.size()) {
+				pending.removeFirst();
+				listener.rowsAdded(this, batch.ids);
+			}
+		}
+
+		if(!pending.isEmpty()) {
+			scheduleDrain();
+		} else if(finished) {
+			finished = false;
+			listener.loadFinished(this, isCancelled(), getError());
+		}
+	}
+
+	/**
+	 * @return What made doInBackground fail, or null
+	 */
+	private Throwable getError() {
+		if(isCancelled()) return null;
+		try {
+			get();
+			return null;
+		} catch(InterruptedException e) {
+			return e;
+		} catch(ExecutionException e) {
+			return e.getCause();
+		}
+	}
+
+	/**
+	 * @return Length of each file loaded so far, as covered by the load
+	 */
+	public Map<File, Long> getLoadedLengths() {
+		return loadedLengths;
+	}
+
+	/**
+	 * @return Total size of the files being loaded
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return Bytes of the files parsed so far
+	 */
+	public long getBytesLoaded() {
+		return bytesLoaded;
+	}
+
+	/**
+	 * @return Rows parsed so far
+	 */
+	public long getRowsLoaded() {
+		return rowsLoaded;
+	}
+
+	/**
+	 * A chunk of rows waiting to be appended
+	 */
+	static class Batch {
+		final RaDecTable table;
+		final Set<Integer> ids;
+		int offset = 0;
+
+		Batch(RaDecTable table, Set<Integer> ids) {
+			this.table = table;
+			this.ids = ids;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.dbs.gps.gui;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfree.chart.ChartPanel;
+import org.jfree.chart.panel.AbstractOverlay;
+import org.jfree.chart.panel.Overlay;
+
+import com.dbs.gps.perf.Instrumentation;
+import com.dbs.gps.perf.PerformanceMXBean.StageStatistics;
+
+/**
+ * Draws the latest figures of the Instrumentation over the top left of a
+ * chart's data area: each stage's runs, latest, median, 99th percentile &
+ * longest times & rows, then the bytes read, the plotted data's size & the
+ * heap in use. The figures are read each time the chart panel paints; call
+ * fireOverlayChanged to have it paint again.
+ *
+ * @author Derek Springer
+ */
+public class PerformanceOverlay extends AbstractOverlay implements Overlay {
+
+	private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+	private static final Color BACKGROUND = new Color(0, 0, 0, 160);
+	private static final Color FOREGROUND = Color.WHITE;
+
+	/**
+	 * Space around the text & from the edge of the data area, in pixels
+	 */
+	private static final int MARGIN = 6;
+
+	@Override
+	public void paintOverlay(Graphics2D g2, ChartPanel chartPanel) {
+		List<String> lines = getLines();
+		Graphics2D g = (Graphics2D)g2.create();
+		try {
+			g.setFont(FONT);
+			FontMetrics metrics = g.getFontMetrics();
+			int width = 0;
+			for(String line : lines) {
+				width = Math.max(width, metrics.stringWidth(line));
+			}
+			int height = lines.size() * metrics.getHeight();
+
+			Rectangle2D area = chartPanel.getScreenDataArea();
+			int x = (int)area.getX() + MARGIN;
+			int y = (int)area.getY() + MARGIN;
+			g.setColor(BACKGROUND);
+			g.fillRect(x, y, width + 2 * MARGIN, height + 2 * MARGIN);
+			g.setColor(FOREGROUND);
+			int baseline = y + MARGIN + metrics.getAscent();
+			for(String line : lines) {
+				g.drawString(line, x + MARGIN, baseline);
+				baseline += metrics.getHeight();
+			}
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * @return Lines of figures to draw
+	 */
+	private static List<String> getLines() {
+		Instrumentation instrumentation = Instrumentation.get();
+		List<String> lines = new ArrayList<String>();
+		lines.add(String.format("%-13s %6s %8s %8s %8s %8s %13s",
+				"stage", "runs", "last ms", "p50 ms", "p99 ms", "max ms", "rows"));
+		for(StageStatistics stage : instrumentation.getStages()) {
+			lines.add(String.format("%-13s %6d %8.2f %8.2f %8.2f %8.2f %,13d",
+					stage.getName(), stage.getCount(), stage.getLastMillis(),
+					stage.getMedianMillis(), stage.getP99Millis(),
+					stage.getMaxMillis(), stage.getRows()));
+		}
+		Runtime runtime = Runtime.getRuntime();
+		lines.add(String.format("read %.1f MB, plotted %.1f MB, heap %d of %d MB",
+				instrumentation.getBytesRead() / (1024.0 * 1024.0),
+				instrumentation.getDatasetBytes() / (1024.0 * 1024.0),
+				(runtime.totalMemory() - runtime.freeMemory()) >> 20,
+				runtime.maxMemory() >> 20));
+		return lines;
+	}
+}
@@ -0,0 +1,545 @@
+package com.dbs.gps.gui;
+
+import java.awt.Paint;
+import java.awt.Shape;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.Timer;
+
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.AbstractRenderer;
+import org.jfree.chart.renderer.xy.XYItemRenderer;
+import org.jfree.data.Range;
+
+import com.dbs.gps.data.RaDecTable;
+
+/**
+ * Plays a fixed width time window across a span of time as a time-lapse of
+ * the trajectories. Frames are rendered ahead, in order, on a pool of worker
+ * threads, each w/ a chart & RaDecDataset of its own over the table & the
+ * axes held fixed. At most a set number of frames are in flight or waiting to
+ * be shown; past that the thread feeding the workers blocks, so rendering
+ * never runs further ahead of playback than that.
+ *
+ * <p>A Swing Timer shows the frames on the EDT at a steady rate, frame i
+ * being due i intervals after the first frame was ready. A frame still
+ * rendering once a later frame is due is dropped rather than waited for, as
+ * is a finished frame overtaken by a later finished one, so a slow frame
+ * costs a gap rather than holding playback back. Frames already overdue
+ * aren't rendered at all, so once behind the workers skip ahead to the
+ * frames still worth showing.</p>
+ *
+ * <p>The table must not be changed while playing.</p>
+ *
+ * @author Derek Springer
+ */
+public class Playback {
+
+	/**
+	 * Receives frames & the end of playback, on the EDT
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a frame is due & ready to be shown
+		 * @param frame Frame to show
+		 */
+		void frameShown(Frame frame);
+
+		/**
+		 * Called once, after the last frame is shown or dropped or playback
+		 * 	is stopped
+		 * @param playback The playback, for its statistics
+		 */
+		void playbackFinished(Playback playback);
+	}
+
+	/**
+	 * Table the frames are drawn from
+	 */
+	private final RaDecTable table;
+
+	/**
+	 * IDs to plot
+	 */
+	private final Collection<Integer> ids;
+
+	/**
+	 * Colors & shapes of the series by index, as the chart's renderer picks
+	 * 	them, so a frame's series look as they do on the chart
+	 */
+	private final Paint[] paints;
+	private final Shape[] shapes;
+
+	/**
+	 * Start time of the first window, width of the windows & time the
+	 * 	window moves per frame
+	 */
+	private final int start;
+	private final int width;
+	private final int step;
+
+	/**
+	 * Axis ranges, fixed for every frame
+	 */
+	private final Range domain;
+	private final Range range;
+
+	/**
+	 * Size of the frames in pixels
+	 */
+	private final int imageWidth;
+	private final int imageHeight;
+
+	/**
+	 * Time between frames, in ms
+	 */
+	private final int interval;
+
+	/**
+	 * Number of frames in all
+	 */
+	private final int frameCount;
+
+	private final Listener listener;
+
+	/**
+	 * Frames rendering or rendered but not yet shown, in order, bounded to
+	 * 	the most frames to render ahead
+	 */
+	private final BlockingQueue<Pending> frames;
+
+	private final ExecutorService workers;
+
+	/**
+	 * Submits the frames to the workers, blocking while the queue is full
+	 */
+	private final Thread feeder;
+
+	private final Timer timer;
+
+	/**
+	 * Chart & dataset of each worker
+	 */
+	private final ThreadLocal<Renderer> renderers = new ThreadLocal<Renderer>() {
+		@Override
+		protected Renderer initialValue() {
+			return new Renderer();
+		}
+	};
+
+	/**
+	 * When the first frame was ready, in ns, or 0 until then
+	 */
+	private volatile long began = 0;
+
+	/**
+	 * Index of the next frame to show, those before it being shown or
+	 * 	dropped
+	 */
+	private int next = 0;
+
+	/**
+	 * When the last frame was shown, in ns
+	 */
+	private long lastShown = 0;
+
+	private boolean finished = false;
+
+	/**
+	 * Statistics, only touched on the EDT
+	 */
+	private int shown = 0;
+	private int lateTicks = 0;
+	private long[] renderNanos = new long[64];
+	private int renderCount = 0;
+	private long[] gapNanos = new long[64];
+	private int gapCount = 0;
+
+	/**
+	 * @param table Table to draw from, which must not change while playing
+	 * @param ids IDs to plot
+	 * @param renderer Renderer of the chart, which the series' colors &
+	 * 	shapes are taken from. Read on the calling thread only.
+	 * @param start Start time of the first window
+	 * @param width Width of the window
+	 * @param end Time the last window ends by
+	 * @param step Time the window moves per frame
+	 * @param domain Range of the domain axis
+	 * @param range Range of the range axis
+	 * @param imageWidth Width of the frames
+	 * @param imageHeight Height of the frames
+	 * @param fps Frames to show per second
+	 * @param ahead Most frames to render ahead of the one shown
+	 * @param threads Threads to render on
+	 * @param listener Listener to show the frames
+	 */
+	public Playback(
+			RaDecTable table,
+			Collection<Integer> ids,
+			XYItemRenderer renderer,
+			int start,
+			int width,
+			int end,
+			int step,
+			Range domain,
+			Range range,
+			int imageWidth,
+			int imageHeight,
+			int fps,
+			int ahead,
+			int threads,
+			Listener listener) {
+
+		this.table = table;
+		this.ids = new TreeSet<Integer>(ids);
+		this.paints = new Paint[this.ids.size()];
+		this.shapes = new Shape[this.ids.size()];
+		for(int s = 0; s < paints.length; s++) {
+			paints[s] = renderer.getItemPaint(s, 0);
+			shapes[s] = renderer.getItemShape(s, 0);
+		}
+		this.start = start;
+		this.width = width;
+		this.step = Math.max(1, step);
+		this.domain = domain;
+		this.range = range;
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.interval = Math.max(1, 1000 / Math.max(1, fps));
+		this.frameCount = Math.max(1, (end - width - start) / this.step + 1);
+		this.listener = listener;
+
+		frames = new ArrayBlockingQueue<Pending>(Math.max(1, ahead));
+		final AtomicInteger count = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(
+				Math.max(1, threads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(
+						r, "Playback-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		feeder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				feed();
+			}
+		}, "Playback feeder");
+		feeder.setDaemon(true);
+		timer = new Timer(interval, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				tick();
+			}
+		});
+		timer.setInitialDelay(0);
+	}
+
+	/**
+	 * Starts rendering & showing frames. Call on the EDT.
+	 */
+	public void start() {
+		feeder.start();
+		timer.start();
+	}
+
+	/**
+	 * Stops playback, dropping the frames not yet shown. Call on the EDT.
+	 */
+	public void stop() {
+		if(finished) return;
+		finished = true;
+		timer.stop();
+		feeder.interrupt();
+		workers.shutdownNow();
+		Pending pending;
+		while((pending = frames.poll()) != null) {
+			pending.future.cancel(true);
+		}
+		listener.playbackFinished(this);
+	}
+
+	/**
+	 * Waits for the workers to finish the frames they were rendering when
+	 * 	playback stopped, after which nothing reads the table
+	 * @param millis Most ms to wait
+	 * @return Whether the workers finished in time
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public boolean awaitStopped(long millis) throws InterruptedException {
+		return workers.awaitTermination(millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return Whether playback has ended
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Submits the frames in order, waiting on the queue for room & skipping
+	 * 	those already due by then, though never the last. Runs on the feeder
+	 * 	thread.
+	 */
+	private void feed() {
+		try {
+			for(int i = 0; i < frameCount; i++) {
+				i = (int)Math.max(i, Math.min(frameCount - 1, due()));
+				final int index = i;
+				Future<Frame> future = workers.submit(new Callable<Frame>() {
+					@Override
+					public Frame call() {
+						if(index < due()) return null;
+						return renderers.get().render(index);
+					}
+				});
+				frames.put(new Pending(index, future));
+			}
+		} catch(InterruptedException e) {
+			// stopped
+		} catch(RejectedExecutionException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * @return Index of the frame due now, or 0 before the first is ready
+	 */
+	private long due() {
+		long began = this.began;
+		return began == 0 ? 0 :
+				(System.nanoTime() - began) / (interval * 1000000L);
+	}
+
+	/**
+	 * Shows the latest finished frame which is due, dropping the frames
+	 * 	before it whether finished or not. Runs on the EDT every interval.
+	 */
+	private void tick() {
+		long now = System.nanoTime();
+		if(began == 0) {
+			// hold the clock until the first frame is ready
+			Pending first = frames.peek();
+			if(first == null || !first.future.isDone()) return;
+			began = now;
+		}
+		long due = due();
+
+		Frame ready = null;
+		Pending head;
+		while((head = frames.peek()) != null && head.index <= due) {
+			if(head.future.isDone()) {
+				frames.poll();
+				next = head.index + 1;
+				Frame frame = get(head);
+				if(frame == null) continue;
+				addRenderNanos(frame.renderNanos);
+				ready = frame;
+			} else if(head.index < due) {
+				frames.poll();
+				next = head.index + 1;
+				head.future.cancel(true);
+			} else {
+				if(ready == null) lateTicks++;
+				break;
+			}
+		}
+
+		if(ready != null) {
+			if(lastShown != 0) addGapNanos(now - lastShown);
+			lastShown = now;
+			shown++;
+			listener.frameShown(ready);
+		}
+
+		if(next >= frameCount) stop();
+	}
+
+	private static Frame get(Pending pending) {
+		try {
+			return pending.future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+		return null;
+	}
+
+	private void addRenderNanos(long nanos) {
+		if(renderCount == renderNanos.length) {
+			renderNanos = Arrays.copyOf(renderNanos, renderCount * 2);
+		}
+		renderNanos[renderCount++] = nanos;
+	}
+
+	private void addGapNanos(long nanos) {
+		if(gapCount == gapNanos.length) {
+			gapNanos = Arrays.copyOf(gapNanos, gapCount * 2);
+		}
+		gapNanos[gapCount++] = nanos;
+	}
+
+	/**
+	 * @return The given fraction of the way through the sorted values, in ms
+	 */
+	private static double percentile(long[] values, int count, double fraction) {
+		if(count == 0) return 0;
+		long[] sorted = Arrays.copyOf(values, count);
+		Arrays.sort(sorted);
+		return sorted[(int)Math.min(count - 1, fraction * count)] / 1e6;
+	}
+
+	/**
+	 * @return Number of frames in all
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return Number of frames shown so far
+	 */
+	public int getShown() {
+		return shown;
+	}
+
+	/**
+	 * @return Number of frames dropped so far, as late, overtaken or skipped
+	 */
+	public int getDropped() {
+		return next - shown;
+	}
+
+	/**
+	 * @return Number of intervals in which the frame due wasn't ready
+	 */
+	public int getLateTicks() {
+		return lateTicks;
+	}
+
+	/**
+	 * @return Frames shown per second since the first
+	 */
+	public double getFramesPerSecond() {
+		if(shown < 2) return 0;
+		long span = 0;
+		for(int i = 0; i < gapCount; i++) {
+			span += gapNanos[i];
+		}
+		return gapCount / (span / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Playback: %d of %d frames shown, %d dropped, " +
+				"%d late, %.1f of %d fps; render median %.1f ms, " +
+				"p95 %.1f ms, max %.1f ms; gap p95 %.1f ms, max %.1f ms",
+				shown, frameCount, getDropped(), lateTicks,
+				getFramesPerSecond(), 1000 / interval,
+				percentile(renderNanos, renderCount, 0.5),
+				percentile(renderNanos, renderCount, 0.95),
+				percentile(renderNanos, renderCount, 1),
+				percentile(gapNanos, gapCount, 0.95),
+				percentile(gapNanos, gapCount, 1));
+	}
+
+	/**
+	 * A frame submitted to the workers
+	 */
+	private static final class Pending {
+		final int index;
+		final Future<Frame> future;
+
+		Pending(int index, Future<Frame> future) {
+			this.index = index;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * A worker's chart, drawn w/ the axes fixed
+	 */
+	private final class Renderer {
+		private final RaDecDataset dataset = new RaDecDataset(table);
+		private final JFreeChart chart;
+
+		Renderer() {
+			chart = RasterXYPlot.createScatterPlot(
+					null,
+					"Right Ascension",
+					"Declination",
+					dataset);
+			chart.setAntiAlias(false);
+			XYPlot plot = chart.getXYPlot();
+			plot.getDomainAxis().setRange(domain);
+			plot.getRangeAxis().setRange(range);
+		}
+
+		Frame render(int index) {
+			long began = System.nanoTime();
+			int from = start + index * step;
+			dataset.setWindow(from, from + width, ids);
+			XYPlot plot = chart.getXYPlot();
+			dataset.setResolution(plot.getDomainAxis(), plot.getRangeAxis(),
+					imageWidth, imageHeight);
+
+			AbstractRenderer renderer = (AbstractRenderer)plot.getRenderer();
+			for(int s = 0; s < dataset.getSeriesCount() && s < paints.length; s++) {
+				renderer.setSeriesPaint(s, paints[s], false);
+				renderer.setSeriesShape(s, shapes[s], false);
+			}
+
+			BufferedImage image = chart.createBufferedImage(imageWidth, imageHeight);
+			return new Frame(index, from, from + width, image,
+					System.nanoTime() - began);
+		}
+	}
+
+	/**
+	 * A rendered frame
+	 */
+	public static class Frame {
+		final int index;
+		final int start;
+		final int stop;
+		final BufferedImage image;
+		final long renderNanos;
+
+		/**
+		 * @param index Place of the frame in playback
+		 * @param start Start time of the window
+		 * @param stop End time of the window
+		 * @param image The chart drawn for the window
+		 * @param renderNanos Nanoseconds spent rendering
+		 */
+		Frame(int index, int start, int stop, BufferedImage image, long renderNanos) {
+			this.index = index;
+			this.start = start;
+			this.stop = stop;
+			this.image = image;
+			this.renderNanos = renderNanos;
+		}
+	}
+}
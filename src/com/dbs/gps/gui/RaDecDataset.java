@@ -0,0 +1,703 @@
+package com.dbs.gps.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.data.DomainInfo;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYDataset;
+
+import com.dbs.gps.data.IdIndex;
+import com.dbs.gps.data.RaDecQuery;
+import com.dbs.gps.data.RaDecTable;
+import com.dbs.gps.perf.Instrumentation;
+
+/**
+ * A long lived XYDataset over a RaDecTable, showing the rows of a set of IDs
+ * within a time window, one series per ID. Each series is a view of offset
+ * & length over the ID's posting list, so no point is copied & values are
+ * read straight from the table's columns. Moving the window or changing the
+ * IDs only applies the difference: each view moves its ends, series are
+ * added or dropped for IDs which came or went, & one change event is fired.
+ *
+ * <p>The domain & range bounds are those of every point shown since the
+ * dataset was created or last cleared, so the axes widen as data arrives
+ * but don't jump around as the window moves. They are widened on each move
+ * from the segment bounds of the IDs' posting lists, w/o a pass over the
+ * points.</p>
+ *
+ * <p>Once given the chart's axes & size, large series are decimated to what
+ * can be seen: of the points falling on the same pixel only the first is
+ * kept, points outside the axis ranges are dropped, & each series keeps its
+ * first & last point. The chart then draws at most one point per pixel per
+ * series, however many rows are in the window.</p>
+ *
+ * <p>When zoomed in to under a quarter of the bounds, the series hold only
+ * the rows within a box around the view, found through the table's
+ * SpatialIndex. The box has a margin of half the view on each side, so
+ * panning re-queries only once the view leaves it.</p>
+ *
+ * <p>The content shown is named by a raster key of the window, IDs, table
+ * size & mod count, box & resolution, so a RasterXYPlot can cache what it
+ * drew for each.</p>
+ *
+ * @author Derek Springer
+ */
+public class RaDecDataset extends AbstractXYDataset
+		implements DomainInfo, RangeInfo, RasterXYPlot.Keyed {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Series w/ fewer points than this are shown whole
+	 */
+	private static final int DECIMATE_THRESHOLD = 1024;
+
+	/**
+	 * Fraction of the bounds the view must be under for only the box around
+	 * 	it to be queried
+	 */
+	private static final double ZOOM_FRACTION = 0.25;
+
+	/**
+	 * Margin on each side of the view in the box queried, as a fraction of
+	 * 	the view
+	 */
+	private static final double ZOOM_MARGIN = 0.5;
+
+	/**
+	 * Table the points are read from
+	 */
+	private final RaDecTable table;
+
+	/**
+	 * Size of the table when the series were last looked up, their postings
+	 * 	are looked up again if it has changed
+	 */
+	private int tableSize = 0;
+
+	/**
+	 * Mod count of the table when the series were last looked up, they are
+	 * 	decimated again if rows have since been moved in place
+	 */
+	private int modCount = 0;
+
+	/**
+	 * Series by ID
+	 */
+	private final Map<Integer, Series> seriesById = new TreeMap<Integer, Series>();
+
+	/**
+	 * Series w/ points in ID order, as indexed by the XYDataset methods
+	 */
+	private List<Series> series = new ArrayList<Series>();
+
+	/**
+	 * Window & IDs last shown
+	 */
+	private int start = 0;
+	private int stop = 0;
+	private Collection<Integer> ids = new TreeSet<Integer>();
+
+	/**
+	 * Box the series were queried for when zoomed in, else null
+	 */
+	private Range boxDomain = null;
+	private Range boxRange = null;
+
+	private double minX = Double.POSITIVE_INFINITY;
+	private double maxX = Double.NEGATIVE_INFINITY;
+	private double minY = Double.POSITIVE_INFINITY;
+	private double maxY = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Axes the series are decimated for, null until setResolution is called
+	 */
+	private ValueAxis domainAxis = null;
+	private ValueAxis rangeAxis = null;
+
+	/**
+	 * Size of the chart in pixels
+	 */
+	private int width = 0;
+	private int height = 0;
+
+	/**
+	 * Axis ranges the series were last decimated for
+	 */
+	private Range decimatedDomain = null;
+	private Range decimatedRange = null;
+
+	/**
+	 * One bit per pixel, set once a point of the series has landed on it
+	 */
+	private long[] pixels = new long[0];
+
+	/**
+	 * Whether the series may need decimating before they are next read. They
+	 * 	are decimated lazily, so a chart which finds its raster cached never
+	 * 	pays for it.
+	 */
+	private boolean stale = false;
+
+	/**
+	 * Number of times the dataset has been cleared, so rasters drawn before a
+	 * 	clear never match those drawn after it
+	 */
+	private int generation = 0;
+
+	/**
+	 * @param table RaDecTable to read the points from
+	 */
+	public RaDecDataset(RaDecTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Shows the rows of the given IDs within the given window, applying only
+	 * 	what changed since the last call
+	 * @param start Start time of window
+	 * @param stop End time of window
+	 * @param ids Collection of IDs to show
+	 */
+	public void setWindow(int start, int stop, Collection<Integer> ids) {
+		long began = System.nanoTime();
+		this.start = start;
+		this.stop = stop;
+		this.ids = new TreeSet<Integer>(ids);
+		widen(RaDecQuery.bounds(table, start, stop, this.ids));
+		boolean modified = table.getModCount() != modCount;
+		modCount = table.getModCount();
+		if(modified) {
+			for(Series s : seriesById.values()) {
+				s.decimated = false;
+			}
+		}
+
+		if(boxDomain != null) {
+			queryBox();
+			publish();
+		} else if(applyWindow(table.size() != tableSize || modified)) {
+			publish();
+		}
+		Instrumentation.record(Instrumentation.DATASET, began, rows(series));
+	}
+
+	/**
+	 * @return Number of rows in the given series
+	 */
+	private static long rows(Collection<Series> series) {
+		long rows = 0;
+		for(Series s : series) {
+			rows += s.size;
+		}
+		return rows;
+	}
+
+	/**
+	 * Widens the domain & range bounds to take in the given bounds
+	 * @param bounds Least & greatest right ascension, then least & greatest
+	 * 	declination, or null for none
+	 */
+	private void widen(double[] bounds) {
+		if(bounds == null) return;
+		minX = Math.min(minX, bounds[0]);
+		maxX = Math.max(maxX, bounds[1]);
+		minY = Math.min(minY, bounds[2]);
+		maxY = Math.max(maxY, bounds[3]);
+	}
+
+	/**
+	 * Moves each series to the rows of its ID in the window
+	 * @param refill Whether to fill the series again from scratch
+	 * @return Whether anything changed
+	 */
+	private boolean applyWindow(boolean refill) {
+		IdIndex index = table.getIdIndex();
+		tableSize = table.size();
+		boolean changed = refill;
+
+		Iterator<Map.Entry<Integer, Series>> it =
+				seriesById.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Integer, Series> entry = it.next();
+			IdIndex.Posting posting = index.get(entry.getKey());
+			if(!ids.contains(entry.getKey()) || posting == null) {
+				it.remove();
+				changed = true;
+			} else if(refill) {
+				entry.getValue().posting = posting;
+			}
+		}
+
+		for(Integer id : ids) {
+			if(seriesById.containsKey(id)) continue;
+			IdIndex.Posting posting = index.get(id);
+			if(posting == null) continue;
+			seriesById.put(id, new Series(posting));
+			changed = true;
+		}
+
+		for(Series s : seriesById.values()) {
+			if(s.setWindow(s.posting.first(start), s.posting.end(stop))) {
+				s.decimated = false;
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Fills the series w/ the rows of their IDs in the window & box
+	 */
+	private void queryBox() {
+		Map<Integer, int[]> rows = table.getSpatialIndex().query(
+				boxDomain.getLowerBound(),
+				boxDomain.getUpperBound(),
+				boxRange.getLowerBound(),
+				boxRange.getUpperBound(),
+				start,
+				stop,
+				ids);
+		IdIndex index = table.getIdIndex();
+		tableSize = table.size();
+
+		seriesById.keySet().retainAll(rows.keySet());
+		for(Map.Entry<Integer, int[]> entry : rows.entrySet()) {
+			Series s = seriesById.get(entry.getKey());
+			if(s == null) {
+				s = new Series(index.get(entry.getKey()));
+				seriesById.put(entry.getKey(), s);
+			}
+			s.posting = index.get(entry.getKey());
+			s.fill(entry.getValue());
+		}
+	}
+
+	/**
+	 * Lists the series w/ points & tells the chart, leaving them to be
+	 * 	decimated when next read
+	 */
+	private void publish() {
+		series = new ArrayList<Series>(seriesById.size());
+		for(Series s : seriesById.values()) {
+			if(s.size > 0) series.add(s);
+		}
+		stale = true;
+		fireDatasetChanged();
+	}
+
+	/**
+	 * Sets what the series are decimated for, re-decimating them if the axis
+	 * 	ranges or size have changed. Call on zoom & resize.
+	 * @param domainAxis Domain axis of the chart
+	 * @param rangeAxis Range axis of the chart
+	 * @param width Width of the chart in pixels
+	 * @param height Height of the chart in pixels
+	 */
+	public void setResolution(
+			ValueAxis domainAxis,
+			ValueAxis rangeAxis,
+			int width,
+			int height) {
+
+		this.domainAxis = domainAxis;
+		this.rangeAxis = rangeAxis;
+		if(width != this.width || height != this.height) {
+			this.width = width;
+			this.height = height;
+			decimatedDomain = null;
+		}
+
+		Range domain = getView(domainAxis, getDomainBounds(false));
+		Range range = getView(rangeAxis, getRangeBounds(false));
+		if(isZoomed(domain, range)) {
+			if(boxDomain == null ||
+					!contains(boxDomain, domain) || !contains(boxRange, range)) {
+				boxDomain = Range.expand(domain, ZOOM_MARGIN, ZOOM_MARGIN);
+				boxRange = Range.expand(range, ZOOM_MARGIN, ZOOM_MARGIN);
+				queryBox();
+				publish();
+				return;
+			}
+		} else if(boxDomain != null) {
+			boxDomain = null;
+			boxRange = null;
+			applyWindow(true);
+			publish();
+			return;
+		}
+
+		if(!stale && !isDecimated()) {
+			stale = true;
+			fireDatasetChanged();
+		}
+	}
+
+	/**
+	 * @return Range an axis shows, taking an auto ranged axis to be about to
+	 * 	show the bounds
+	 */
+	private static Range getView(ValueAxis axis, Range bounds) {
+		return axis.isAutoRange() ? bounds : axis.getRange();
+	}
+
+	/**
+	 * @return Whether the view covers under ZOOM_FRACTION of the bounds
+	 */
+	private boolean isZoomed(Range domain, Range range) {
+		Range domainBounds = getDomainBounds(false);
+		Range rangeBounds = getRangeBounds(false);
+		if(domain == null || range == null || domainBounds == null) {
+			return false;
+		}
+
+		double area = domainBounds.getLength() * rangeBounds.getLength();
+		double shown = overlap(domain, domainBounds) * overlap(range, rangeBounds);
+		return area > 0 && shown < ZOOM_FRACTION * area;
+	}
+
+	private static double overlap(Range a, Range b) {
+		return Math.max(0, Math.min(a.getUpperBound(), b.getUpperBound()) -
+				Math.max(a.getLowerBound(), b.getLowerBound()));
+	}
+
+	private static boolean contains(Range outer, Range inner) {
+		return outer.getLowerBound() <= inner.getLowerBound() &&
+				outer.getUpperBound() >= inner.getUpperBound();
+	}
+
+	/**
+	 * @return Whether every series is decimated for the current axis ranges
+	 */
+	private boolean isDecimated() {
+		if(domainAxis == null || width <= 0 || height <= 0) return true;
+
+		Range domain = getView(domainAxis, getDomainBounds(false));
+		Range range = getView(rangeAxis, getRangeBounds(false));
+		if(domain == null || range == null) return true;
+		if(!domain.equals(decimatedDomain) || !range.equals(decimatedRange)) {
+			return false;
+		}
+
+		for(Series s : series) {
+			if(!s.decimated) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decimates the series which have changed, or all of them if the axis
+	 * 	ranges have
+	 */
+	private void decimate() {
+		if(domainAxis == null || width <= 0 || height <= 0) return;
+
+		Range domain = getView(domainAxis, getDomainBounds(false));
+		Range range = getView(rangeAxis, getRangeBounds(false));
+		if(domain == null || range == null) return;
+		boolean all = !domain.equals(decimatedDomain) ||
+				!range.equals(decimatedRange);
+		decimatedDomain = domain;
+		decimatedRange = range;
+
+		long began = System.nanoTime();
+		long rows = 0;
+		for(Series s : all ? seriesById.values() : series) {
+			if(s.decimated && !all) continue;
+			s.decimate(domain, range);
+			rows += s.size;
+		}
+		Instrumentation.record(Instrumentation.DECIMATE, began, rows);
+	}
+
+	/**
+	 * Removes every series & resets the bounds
+	 */
+	public void clear() {
+		seriesById.clear();
+		minX = minY = Double.POSITIVE_INFINITY;
+		maxX = maxY = Double.NEGATIVE_INFINITY;
+		decimatedDomain = null;
+		boxDomain = null;
+		boxRange = null;
+		series = new ArrayList<Series>();
+		tableSize = 0;
+		generation++;
+		fireDatasetChanged();
+	}
+
+	@Override
+	public Object getRasterKey() {
+		return new RasterKey();
+	}
+
+	@Override
+	public int getSeriesCount() {
+		return series.size();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Comparable getSeriesKey(int s) {
+		return series.get(s).posting.getId();
+	}
+
+	@Override
+	public int getItemCount(int s) {
+		Series data = get(s);
+		return data.kept == null ? data.size : data.keptCount;
+	}
+
+	@Override
+	public Number getX(int s, int item) {
+		return getXValue(s, item);
+	}
+
+	@Override
+	public double getXValue(int s, int item) {
+		return table.getRightAscension(get(s).row(item));
+	}
+
+	@Override
+	public Number getY(int s, int item) {
+		return getYValue(s, item);
+	}
+
+	@Override
+	public double getYValue(int s, int item) {
+		return table.getDeclination(get(s).row(item));
+	}
+
+	/**
+	 * @return Series of the given index, decimated if stale
+	 */
+	private Series get(int s) {
+		if(stale) {
+			stale = false;
+			decimate();
+		}
+		return series.get(s);
+	}
+
+	@Override
+	public double getDomainLowerBound(boolean includeInterval) {
+		return hasBounds() ? minX : Double.NaN;
+	}
+
+	@Override
+	public double getDomainUpperBound(boolean includeInterval) {
+		return hasBounds() ? maxX : Double.NaN;
+	}
+
+	@Override
+	public Range getDomainBounds(boolean includeInterval) {
+		return hasBounds() ? new Range(minX, maxX) : null;
+	}
+
+	@Override
+	public double getRangeLowerBound(boolean includeInterval) {
+		return hasBounds() ? minY : Double.NaN;
+	}
+
+	@Override
+	public double getRangeUpperBound(boolean includeInterval) {
+		return hasBounds() ? maxY : Double.NaN;
+	}
+
+	@Override
+	public Range getRangeBounds(boolean includeInterval) {
+		return hasBounds() ? new Range(minY, maxY) : null;
+	}
+
+	private boolean hasBounds() {
+		return minX <= maxX && minY <= maxY;
+	}
+
+	/**
+	 * The points of one ID, a view of offset & length over an array of row
+	 * 	numbers in the table: the ID's posting list, or the rows a box query
+	 * 	found. Nothing is copied, values are read from the table as the chart
+	 * 	asks for them.
+	 */
+	private class Series {
+		IdIndex.Posting posting;
+
+		int[] rows = new int[0];
+		int offset = 0;
+		int size = 0;
+
+		/**
+		 * Whether rows came from a box query rather than the posting list
+		 */
+		boolean box = false;
+
+		/**
+		 * Items of the view shown when decimated, else null to show all
+		 */
+		int[] kept = null;
+		int keptCount = 0;
+
+		/**
+		 * Whether kept is up to date w/ the view
+		 */
+		boolean decimated = false;
+
+		Series(IdIndex.Posting posting) {
+			this.posting = posting;
+		}
+
+		/**
+		 * @return Row number in the table of the given item shown
+		 */
+		int row(int item) {
+			return rows[offset + (kept == null ? item : kept[item])];
+		}
+
+		/**
+		 * Moves the view to the posting list positions [first, end)
+		 * @return Whether the view changed
+		 */
+		boolean setWindow(int first, int end) {
+			if(first >= end) end = first;
+			int[] postingRows = posting.getRows();
+			if(postingRows == rows && !box &&
+					first == offset && end - first == size) {
+				return false;
+			}
+
+			rows = postingRows;
+			offset = first;
+			size = end - first;
+			box = false;
+			return true;
+		}
+
+		/**
+		 * Views the rows a box query found
+		 */
+		void fill(int[] boxRows) {
+			rows = boxRows;
+			offset = 0;
+			size = boxRows.length;
+			box = true;
+			decimated = false;
+		}
+
+		/**
+		 * Keeps the first point to land on each pixel of the given view, & the
+		 * 	first & last points
+		 */
+		void decimate(Range domain, Range range) {
+			decimated = true;
+			if(size < DECIMATE_THRESHOLD) {
+				kept = null;
+				return;
+			}
+
+			int cells = width * height;
+			if(pixels.length < (cells + 63) >>> 6) {
+				pixels = new long[(cells + 63) >>> 6];
+			} else {
+				Arrays.fill(pixels, 0, (cells + 63) >>> 6, 0L);
+			}
+			if(kept == null || kept.length < Math.min(size, cells + 2)) {
+				kept = new int[Math.min(size, cells + 2)];
+			}
+
+			double minX = domain.getLowerBound();
+			double maxX = domain.getUpperBound();
+			double minY = range.getLowerBound();
+			double maxY = range.getUpperBound();
+			double scaleX = domain.getLength() > 0 ? width / domain.getLength() : 0;
+			double scaleY = range.getLength() > 0 ? height / range.getLength() : 0;
+			int last = size - 1;
+
+			keptCount = 0;
+			kept[keptCount++] = 0;
+			for(int i = 1; i < last; i++) {
+				int row = rows[offset + i];
+				double px = table.getRightAscension(row);
+				double py = table.getDeclination(row);
+				if(!(px >= minX && px <= maxX && py >= minY && py <= maxY)) {
+					continue;
+				}
+				int cx = Math.min((int)((px - minX) * scaleX), width - 1);
+				int cy = Math.min((int)((py - minY) * scaleY), height - 1);
+				int cell = cy * width + cx;
+				long bit = 1L << cell;
+				if((pixels[cell >>> 6] & bit) != 0) continue;
+				pixels[cell >>> 6] |= bit;
+				kept[keptCount++] = i;
+			}
+			kept[keptCount++] = last;
+		}
+	}
+
+	/**
+	 * What the series show: the window, IDs, table size & mod count, box &
+	 * 	resolution they were last filled & decimated for
+	 */
+	private final class RasterKey {
+		private final int start = RaDecDataset.this.start;
+		private final int stop = RaDecDataset.this.stop;
+		private final Collection<Integer> ids = RaDecDataset.this.ids;
+		private final int tableSize = RaDecDataset.this.tableSize;
+		private final int modCount = RaDecDataset.this.modCount;
+		private final int generation = RaDecDataset.this.generation;
+		private final Range boxDomain = RaDecDataset.this.boxDomain;
+		private final Range boxRange = RaDecDataset.this.boxRange;
+		private final int width = RaDecDataset.this.width;
+		private final int height = RaDecDataset.this.height;
+
+		/**
+		 * Hash of the fields above, taken once as hashing the IDs walks them
+		 */
+		private final int hash = hash();
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof RasterKey)) return false;
+			RasterKey other = (RasterKey)o;
+			return hash == other.hash &&
+					start == other.start && stop == other.stop &&
+					tableSize == other.tableSize &&
+					modCount == other.modCount &&
+					generation == other.generation &&
+					width == other.width && height == other.height &&
+					equal(boxDomain, other.boxDomain) &&
+					equal(boxRange, other.boxRange) &&
+					ids.equals(other.ids);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		private int hash() {
+			int hash = start;
+			hash = hash * 31 + stop;
+			hash = hash * 31 + tableSize;
+			hash = hash * 31 + modCount;
+			hash = hash * 31 + generation;
+			hash = hash * 31 + width;
+			hash = hash * 31 + height;
+			hash = hash * 31 + (boxDomain == null ? 0 : boxDomain.hashCode());
+			return hash * 31 + ids.hashCode();
+		}
+
+		private boolean equal(Range a, Range b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.dbs.gps.gui;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least recently used cache of rendered plot rasters, bounded by a memory
+ * budget. Each raster is an entry of its own & is evicted whole, as a
+ * raster is only of use while every one of its pixels is cached.
+ *
+ * <p>Rasters are keyed by what they show: the dataset's content key, such
+ * as the time window & IDs plotted, together w/ the axis ranges & the size
+ * & position of the data area.</p>
+ *
+ * @author Derek Springer
+ */
+public class RasterCache {
+
+	/**
+	 * Rasters by key, in least recently used order
+	 */
+	private final LinkedHashMap<Key, int[]> rasters =
+			new LinkedHashMap<Key, int[]>(16, 0.75f, true);
+
+	/**
+	 * Most bytes of rasters to hold
+	 */
+	private long budget;
+
+	/**
+	 * Bytes of rasters held
+	 */
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param budget Most bytes of rasters to hold
+	 */
+	public RasterCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Copies a cached raster into the given pixels
+	 * @param key Key of the raster
+	 * @param pixels ARGB pixels of width x height to copy into
+	 * @param width Width of the raster
+	 * @param height Height of the raster
+	 * @return Whether the raster was cached & copied
+	 */
+	public synchronized boolean get(Key key, int[] pixels, int width, int height) {
+		int[] raster = rasters.get(key);
+		if(raster == null) {
+			misses++;
+			return false;
+		}
+
+		System.arraycopy(raster, 0, pixels, 0, width * height);
+		hits++;
+		return true;
+	}
+
+	/**
+	 * Caches a raster, evicting the least recently used rasters to stay
+	 * 	within the budget
+	 * @param key Key of the raster
+	 * @param pixels ARGB pixels of width x height
+	 * @param width Width of the raster
+	 * @param height Height of the raster
+	 */
+	public synchronized void put(Key key, int[] pixels, int width, int height) {
+		if(4L * width * height > budget) return;
+
+		int[] raster = Arrays.copyOf(pixels, width * height);
+		int[] old = rasters.put(key, raster);
+		if(old != null) bytes -= 4L * old.length;
+		bytes += 4L * raster.length;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<int[]> it = rasters.values().iterator();
+		while(bytes > budget && it.hasNext()) {
+			bytes -= 4L * it.next().length;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops every raster
+	 */
+	public synchronized void clear() {
+		rasters.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return Most bytes of rasters to hold
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @param budget Most bytes of rasters to hold, evicting rasters if over it
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * @return Bytes of rasters held
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return Number of rasters found
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of rasters looked for & not found
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return Number of rasters evicted
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"RasterCache: %d hits, %d misses, %d evictions, %.1f of %.1f MB",
+				hits, misses, evictions,
+				bytes / (1024.0 * 1024.0), budget / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * What a raster shows
+	 */
+	public static final class Key {
+		private final Object content;
+		private final double[] view;
+		private final int width;
+		private final int height;
+		private final int hash;
+
+		/**
+		 * @param content Key of the dataset's content, as from
+		 * 	RasterXYPlot.Keyed
+		 * @param view Axis ranges, data area offsets & anything else the
+		 * 	pixels depend on
+		 * @param width Width of the raster
+		 * @param height Height of the raster
+		 */
+		public Key(Object content, double[] view, int width, int height) {
+			this.content = content;
+			this.view = view.clone();
+			this.width = width;
+			this.height = height;
+			this.hash = (content.hashCode() * 31 +
+					Arrays.hashCode(this.view)) * 31 + width * 7919 + height;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+			Key other = (Key)o;
+			return hash == other.hash &&
+					width == other.width && height == other.height &&
+					Arrays.equals(view, other.view) &&
+					content.equals(other.content);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,532 @@
+package com.dbs.gps.gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.labels.StandardXYToolTipGenerator;
+import org.jfree.chart.plot.CrosshairState;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.SeriesRenderingOrder;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.XYItemRenderer;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
+import org.jfree.data.DomainInfo;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.XYDataset;
+
+import com.dbs.gps.perf.Instrumentation;
+
+/**
+ * An XYPlot which draws scatter plots straight into the pixels of an int
+ * ARGB image rather than filling a Shape per item through Graphics2D. Each
+ * series' shape is rasterized once per frame into stamps of pixel offsets,
+ * one for each of 4x4 sub-pixel positions, & each point sets the pixels of
+ * the nearest stamp to the series' color. The items, taken in the plot's
+ * series rendering order, are split into runs each drawn into a raster of
+ * its own in parallel, & the rasters are laid over one another in order,
+ * band by band, so points overlap as they would if drawn by the renderer.
+ * The image is drawn over the data area in one drawImage. Axes, legend &
+ * zooming are the plot's own.
+ *
+ * <p>Given a RasterCache & a dataset implementing Keyed, finished rasters
+ * are cached by the dataset's content key, the axis ranges & the data area,
+ * so going back to a view seen recently copies its pixels rather than
+ * drawing them again.</p>
+ *
+ * <p>Raster drawing is used for vertical plots w/ linear NumberAxes; other
+ * plots, or a plot w/ raster drawing turned off, are drawn by the renderer
+ * as usual. Raster drawing adds no tooltip entities for the items.</p>
+ *
+ * @author Derek Springer
+ */
+public class RasterXYPlot extends XYPlot {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Sub-pixel positions along each axis a shape is rasterized at
+	 */
+	private static final int PHASES = 4;
+
+	/**
+	 * Threads the rasters are filled & merged on
+	 */
+	private static final int THREADS =
+			Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Pool for filling & merging the rasters, created on first use
+	 */
+	private static ExecutorService pool = null;
+
+	/**
+	 * Whether to draw into a raster
+	 */
+	private boolean rasterEnabled = true;
+
+	/**
+	 * Image drawn into, kept between frames while the size doesn't change
+	 */
+	private transient BufferedImage image = null;
+
+	/**
+	 * Rasters of all but the first run of items, kept between frames while
+	 * 	the size doesn't change. The first run is drawn into the image.
+	 */
+	private transient int[][] rasters = null;
+
+	/**
+	 * Cache of finished rasters, null for none
+	 */
+	private transient RasterCache cache = null;
+
+	/**
+	 * A dataset whose content can be named by a key, equal for datasets
+	 * 	holding the same items in the same series
+	 */
+	public interface Keyed {
+
+		/**
+		 * @return Key of the dataset's current content, w/ equals & hashCode
+		 */
+		Object getRasterKey();
+	}
+
+	/**
+	 * @param dataset Dataset to plot
+	 * @param domainAxis Domain axis
+	 * @param rangeAxis Range axis
+	 * @param renderer Renderer for the legend, colors & shapes
+	 */
+	public RasterXYPlot(
+			XYDataset dataset,
+			ValueAxis domainAxis,
+			ValueAxis rangeAxis,
+			XYItemRenderer renderer) {
+		super(dataset, domainAxis, rangeAxis, renderer);
+	}
+
+	/**
+	 * Creates a scatter plot chart like ChartFactory.createScatterPlot, but
+	 * 	drawn through a RasterXYPlot
+	 * @param title Chart title, may be null
+	 * @param xAxisLabel Label of the domain axis
+	 * @param yAxisLabel Label of the range axis
+	 * @param dataset Dataset to plot
+	 * @return The chart, w/ a legend & tooltips. Datasets implementing
+	 * 	DomainInfo or RangeInfo give the axes their bounds as is, rather than
+	 * 	having every item visited on each change.
+	 */
+	public static JFreeChart createScatterPlot(
+			String title,
+			String xAxisLabel,
+			String yAxisLabel,
+			XYDataset dataset) {
+
+		long began = System.nanoTime();
+		NumberAxis xAxis = new NumberAxis(xAxisLabel);
+		xAxis.setAutoRangeIncludesZero(false);
+		NumberAxis yAxis = new NumberAxis(yAxisLabel);
+		yAxis.setAutoRangeIncludesZero(false);
+
+		XYLineAndShapeRenderer renderer = new BoundsRenderer();
+		renderer.setBaseToolTipGenerator(new StandardXYToolTipGenerator());
+		RasterXYPlot plot = new RasterXYPlot(dataset, xAxis, yAxis, renderer);
+		plot.setOrientation(PlotOrientation.VERTICAL);
+
+		JFreeChart chart = new JFreeChart(
+				title, JFreeChart.DEFAULT_TITLE_FONT, plot, true);
+		ChartFactory.getChartTheme().apply(chart);
+		Instrumentation.record(Instrumentation.CHART, began, 0);
+		return chart;
+	}
+
+	/**
+	 * @return Whether points are drawn into a raster
+	 */
+	public boolean isRasterEnabled() {
+		return rasterEnabled;
+	}
+
+	/**
+	 * @param rasterEnabled Whether to draw points into a raster, or through
+	 * 	the renderer
+	 */
+	public void setRasterEnabled(boolean rasterEnabled) {
+		this.rasterEnabled = rasterEnabled;
+		fireChangeEvent();
+	}
+
+	/**
+	 * @return Cache of finished rasters, null for none
+	 */
+	public RasterCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @param cache Cache of finished rasters, null for none. Only the rasters
+	 * 	of Keyed datasets are cached.
+	 */
+	public void setCache(RasterCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public boolean render(
+			Graphics2D g2,
+			Rectangle2D dataArea,
+			int index,
+			PlotRenderingInfo info,
+			CrosshairState crosshairState) {
+
+		XYDataset dataset = getDataset(index);
+		XYItemRenderer renderer = getRenderer(index);
+		if(renderer == null) renderer = getRenderer();
+		ValueAxis xAxis = getDomainAxisForDataset(index);
+		ValueAxis yAxis = getRangeAxisForDataset(index);
+		if(!rasterEnabled || dataset == null || renderer == null ||
+				getOrientation() != PlotOrientation.VERTICAL ||
+				!isLinear(xAxis) || !isLinear(yAxis)) {
+			return super.render(g2, dataArea, index, info, crosshairState);
+		}
+
+		Rectangle area = dataArea.getBounds();
+		if(area.width <= 0 || area.height <= 0) return true;
+		if(image == null ||
+				image.getWidth() != area.width ||
+				image.getHeight() != area.height) {
+			image = new BufferedImage(
+					area.width, area.height, BufferedImage.TYPE_INT_ARGB);
+		}
+		int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		boolean reverse = getSeriesRenderingOrder() == SeriesRenderingOrder.REVERSE;
+
+		RasterCache.Key key = null;
+		if(cache != null && dataset instanceof Keyed) {
+			key = new RasterCache.Key(
+					((Keyed)dataset).getRasterKey(),
+					new double[] {
+							xAxis.getLowerBound(), xAxis.getUpperBound(),
+							yAxis.getLowerBound(), yAxis.getUpperBound(),
+							dataArea.getX() - area.x, dataArea.getY() - area.y,
+							reverse ? 1 : 0 },
+					area.width, area.height);
+			if(cache.get(key, pixels, area.width, area.height)) {
+				g2.drawImage(image, area.x, area.y, null);
+				return true;
+			}
+		}
+
+		// counted after the lookup, as counting may make the dataset do work
+		// a cached raster makes needless; empty rasters are never cached
+		int items = 0;
+		for(int s = 0; s < dataset.getSeriesCount(); s++) {
+			items += dataset.getItemCount(s);
+		}
+		if(items == 0) return false;
+		Arrays.fill(pixels, 0);
+
+		final Frame frame = new Frame(
+				dataset, renderer, xAxis, yAxis, dataArea, area, pixels, reverse);
+		if(THREADS == 1 || items < 1 << 16) {
+			frame.fill(pixels, 0, items);
+		} else {
+			final int[][] runs = getRasters(pixels);
+			List<Runnable> tasks = new ArrayList<Runnable>(THREADS);
+			for(int t = 0; t < THREADS; t++) {
+				final int[] raster = runs[t];
+				final int first = (int)((long)items * t / THREADS);
+				final int end = (int)((long)items * (t + 1) / THREADS);
+				tasks.add(new Runnable() {
+					@Override
+					public void run() {
+						if(raster != frame.pixels) Arrays.fill(raster, 0);
+						frame.fill(raster, first, end);
+					}
+				});
+			}
+			runAll(tasks);
+
+			int bands = Math.min(THREADS, area.height);
+			tasks.clear();
+			for(int b = 0; b < bands; b++) {
+				final int from = area.height * b / bands;
+				final int to = area.height * (b + 1) / bands;
+				tasks.add(new Runnable() {
+					@Override
+					public void run() {
+						frame.merge(runs, from, to);
+					}
+				});
+			}
+			if(!Thread.currentThread().isInterrupted()) runAll(tasks);
+		}
+
+		if(key != null && !Thread.currentThread().isInterrupted()) {
+			cache.put(key, pixels, area.width, area.height);
+		}
+		g2.drawImage(image, area.x, area.y, null);
+		return true;
+	}
+
+	/**
+	 * A shapes only renderer taking the bounds of datasets which know them
+	 * 	from the datasets, whichever series are visible
+	 */
+	private static class BoundsRenderer extends XYLineAndShapeRenderer {
+		private static final long serialVersionUID = 1L;
+
+		BoundsRenderer() {
+			super(false, true);
+		}
+
+		@Override
+		public Range findDomainBounds(XYDataset dataset) {
+			if(dataset instanceof DomainInfo) {
+				return ((DomainInfo)dataset).getDomainBounds(false);
+			}
+			return super.findDomainBounds(dataset);
+		}
+
+		@Override
+		public Range findRangeBounds(XYDataset dataset) {
+			if(dataset instanceof RangeInfo) {
+				return ((RangeInfo)dataset).getRangeBounds(false);
+			}
+			return super.findRangeBounds(dataset);
+		}
+	}
+
+	private static boolean isLinear(ValueAxis axis) {
+		return axis != null && axis.getClass() == NumberAxis.class;
+	}
+
+	/**
+	 * @return A raster for each run of items, the image's pixels first
+	 */
+	private int[][] getRasters(int[] pixels) {
+		if(rasters == null || rasters[0].length != pixels.length) {
+			rasters = new int[THREADS - 1][pixels.length];
+		}
+		int[][] runs = new int[THREADS][];
+		runs[0] = pixels;
+		System.arraycopy(rasters, 0, runs, 1, THREADS - 1);
+		return runs;
+	}
+
+	/**
+	 * Runs the tasks on the pool & waits for them all, giving up if the
+	 * 	thread is interrupted
+	 */
+	private static void runAll(List<Runnable> tasks) {
+		List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+		for(Runnable task : tasks) {
+			futures.add(getPool().submit(task));
+		}
+		for(Future<?> future : futures) {
+			try {
+				future.get();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch(ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if(pool == null) {
+			pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "RasterXYPlot");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * What one frame draws, shared by the runs of items
+	 */
+	private static class Frame {
+		final XYDataset dataset;
+		final int width;
+		final int height;
+		final int[] pixels;
+
+		/**
+		 * Pixels per unit, & the value at & pixel of the left/top edge of the
+		 * 	data area
+		 */
+		final double scaleX;
+		final double originX;
+		final double offsetX;
+		final double scaleY;
+		final double originY;
+		final double offsetY;
+
+		/**
+		 * Color & stamps of each series, by sub-pixel phase, null stamps for a
+		 * 	hidden series
+		 */
+		final int[] colors;
+		final int[][][] stampX;
+		final int[][][] stampY;
+
+		/**
+		 * Least & greatest row offset of any stamp
+		 */
+		int minDy = 0;
+		int maxDy = 0;
+
+		/**
+		 * Whether the last series is drawn first
+		 */
+		final boolean reverse;
+
+		Frame(XYDataset dataset, XYItemRenderer renderer, ValueAxis xAxis,
+				ValueAxis yAxis, Rectangle2D dataArea, Rectangle area,
+				int[] pixels, boolean reverse) {
+			this.dataset = dataset;
+			this.reverse = reverse;
+			this.width = area.width;
+			this.height = area.height;
+			this.pixels = pixels;
+
+			double xLength = xAxis.getRange().getLength();
+			double yLength = yAxis.getRange().getLength();
+			double w = dataArea.getWidth();
+			double h = dataArea.getHeight();
+			scaleX = (xAxis.isInverted() ? -w : w) / xLength;
+			originX = xAxis.isInverted() ?
+					xAxis.getUpperBound() : xAxis.getLowerBound();
+			offsetX = dataArea.getX() - area.x;
+			scaleY = (yAxis.isInverted() ? h : -h) / yLength;
+			originY = yAxis.isInverted() ?
+					yAxis.getLowerBound() : yAxis.getUpperBound();
+			offsetY = dataArea.getY() - area.y;
+
+			int seriesCount = dataset.getSeriesCount();
+			colors = new int[seriesCount];
+			stampX = new int[seriesCount][][];
+			stampY = new int[seriesCount][][];
+			for(int s = 0; s < seriesCount; s++) {
+				if(!renderer.getItemVisible(s, 0)) continue;
+				Paint paint = renderer.getItemPaint(s, 0);
+				colors[s] = paint instanceof Color ?
+						((Color)paint).getRGB() : Color.GRAY.getRGB();
+				stamp(s, renderer.getItemShape(s, 0));
+			}
+		}
+
+		/**
+		 * Rasterizes a shape centred on the origin into pixel offsets
+		 */
+		private void stamp(int s, Shape shape) {
+			if(shape == null) shape = new Rectangle(0, 0, 1, 1);
+			Rectangle bounds = shape.getBounds();
+			stampX[s] = new int[PHASES * PHASES][];
+			stampY[s] = new int[PHASES * PHASES][];
+			for(int phase = 0; phase < PHASES * PHASES; phase++) {
+				BufferedImage mask = new BufferedImage(bounds.width + 2,
+						bounds.height + 2, BufferedImage.TYPE_INT_ARGB);
+				Graphics2D g = mask.createGraphics();
+				g.translate(-bounds.x + (phase / PHASES + 0.5) / PHASES,
+						-bounds.y + (phase % PHASES + 0.5) / PHASES);
+				g.setColor(Color.BLACK);
+				g.fill(shape);
+				g.dispose();
+
+				int[] xs = new int[mask.getWidth() * mask.getHeight()];
+				int[] ys = new int[xs.length];
+				int n = 0;
+				for(int y = 0; y < mask.getHeight(); y++) {
+					for(int x = 0; x < mask.getWidth(); x++) {
+						if(mask.getRGB(x, y) == 0) continue;
+						xs[n] = x + bounds.x;
+						ys[n++] = y + bounds.y;
+						minDy = Math.min(minDy, y + bounds.y);
+						maxDy = Math.max(maxDy, y + bounds.y);
+					}
+				}
+				stampX[s][phase] = Arrays.copyOf(xs, n);
+				stampY[s][phase] = Arrays.copyOf(ys, n);
+			}
+		}
+
+		/**
+		 * Draws the items at positions [first, end) of the drawing order,
+		 * 	each series' items in turn, into the given raster
+		 */
+		void fill(int[] raster, int first, int end) {
+			int position = 0;
+			for(int n = 0; n < colors.length && position < end; n++) {
+				int s = reverse ? colors.length - 1 - n : n;
+				int items = dataset.getItemCount(s);
+				int from = Math.max(0, first - position);
+				int to = Math.min(items, end - position);
+				position += items;
+				if(stampX[s] == null || from >= to) continue;
+				int color = colors[s];
+
+				for(int i = from; i < to; i++) {
+					double y = offsetY + (dataset.getYValue(s, i) - originY) * scaleY;
+					// NaN fails both tests
+					if(!(y + maxDy >= 0 && y + minDy < height)) continue;
+					double x = offsetX + (dataset.getXValue(s, i) - originX) * scaleX;
+					if(!(x >= -64 && x < width + 64)) continue;
+					int px = (int)Math.floor(x);
+					int py = (int)Math.floor(y);
+					int phase = (int)((x - px) * PHASES) * PHASES +
+							(int)((y - py) * PHASES);
+					int[] xs = stampX[s][phase];
+					int[] ys = stampY[s][phase];
+					for(int k = 0; k < xs.length; k++) {
+						int sx = px + xs[k];
+						int sy = py + ys[k];
+						if(sx < 0 || sx >= width || sy < 0 || sy >= height) continue;
+						raster[sy * width + sx] = color;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Lays the rows [from, to) of each later run's raster over the
+		 * 	image's pixels, which hold the first run, in order
+		 */
+		void merge(int[][] runs, int from, int to) {
+			for(int t = 1; t < runs.length; t++) {
+				int[] raster = runs[t];
+				for(int p = from * width; p < to * width; p++) {
+					if(raster[p] != 0) pixels[p] = raster[p];
+				}
+			}
+		}
+	}
+}
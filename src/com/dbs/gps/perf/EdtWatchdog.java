@@ -0,0 +1,522 @@
+package com.dbs.gps.perf;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the event dispatch thread for freezes. An EventQueue pushed in
+ * front of the system one times the dispatch of every event; a sampler
+ * thread takes the EDT's stack every few ms while an event has run over the
+ * threshold, & the stacks of every such stall are added up by method & by
+ * stack into a hotspot report ranking where the EDT spends its frozen time.
+ *
+ * <p>Time an event spends in a nested event loop, as under a modal dialog,
+ * is counted to the events dispatched & the waits for them rather than to
+ * the event which opened the loop, so a dialog left open isn't taken for a
+ * freeze.</p>
+ *
+ * <p>Each dispatch costs two nanoTimes & a LatencyHistogram record; the
+ * sampler sleeps between checks & only takes stacks during a stall.</p>
+ *
+ * @author Derek Springer
+ */
+public class EdtWatchdog {
+
+	/**
+	 * Most frames of a stack kept, from the top
+	 */
+	private static final int MAX_FRAMES = 24;
+
+	/**
+	 * Most distinct stacks kept, later new stacks being counted as other
+	 */
+	private static final int MAX_STACKS = 500;
+
+	/**
+	 * Number of the longest stalls kept
+	 */
+	private static final int MAX_STALLS = 20;
+
+	/**
+	 * Lines of each ranking in the report
+	 */
+	private static final int REPORT_LINES = 30;
+
+	/**
+	 * Time an event may run before it's a stall & time between samples, in
+	 * 	ns
+	 */
+	private final long threshold;
+	private final long sampleInterval;
+
+	private final WatchQueue queue = new WatchQueue();
+
+	private final Thread sampler;
+
+	/**
+	 * Thread events are dispatched on, once the first is
+	 */
+	private volatile Thread edt = null;
+
+	/**
+	 * When the innermost event being dispatched would have begun had it run
+	 * 	w/o pause, in ns, or 0 while the EDT waits for an event
+	 */
+	private volatile long busySince = 0;
+
+	/**
+	 * Number of the innermost event being dispatched
+	 */
+	private volatile long dispatching = 0;
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * Number, start & time excluded of each event being dispatched, by
+	 * 	nesting depth, only touched on the EDT
+	 */
+	private long[] numbers = new long[8];
+	private long[] began = new long[8];
+	private long[] excluded = new long[8];
+	private int depth = 0;
+	private long dispatched = 0;
+
+	/**
+	 * Times of every event dispatched
+	 */
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	/**
+	 * Samples by method, as { top of the stack, anywhere in the stack }
+	 */
+	private final Map<String, long[]> methods = new HashMap<String, long[]>();
+
+	/**
+	 * Samples by stack
+	 */
+	private final Map<List<StackTraceElement>, long[]> stacks =
+			new HashMap<List<StackTraceElement>, long[]>();
+
+	/**
+	 * First stack sampled in the event being dispatched, & its number
+	 */
+	private StackTraceElement[] firstStack = null;
+	private long firstStackOf = 0;
+
+	/**
+	 * Longest stalls, longest first
+	 */
+	private final List<Stall> longest = new ArrayList<Stall>();
+
+	private long samples = 0;
+	private long otherSamples = 0;
+	private long stalls = 0;
+	private long stalledNanos = 0;
+	private long since = System.currentTimeMillis();
+
+	/**
+	 * @param thresholdMillis Time an event may run before it's a stall
+	 * @param sampleMillis Time between samples of the EDT's stack
+	 */
+	private EdtWatchdog(long thresholdMillis, long sampleMillis) {
+		threshold = Math.max(1, thresholdMillis) * 1000000L;
+		sampleInterval = Math.max(1, sampleMillis) * 1000000L;
+		sampler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, "EDT watchdog");
+		sampler.setDaemon(true);
+	}
+
+	/**
+	 * Starts watching the EDT
+	 * @param thresholdMillis Time an event may run before it's a stall
+	 * @param sampleMillis Time between samples of the EDT's stack
+	 * @return The watchdog, to report from & stop
+	 */
+	public static EdtWatchdog install(long thresholdMillis, long sampleMillis) {
+		EdtWatchdog watchdog = new EdtWatchdog(thresholdMillis, sampleMillis);
+		Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog.queue);
+		watchdog.sampler.start();
+		return watchdog;
+	}
+
+	/**
+	 * Stops watching, handing events back to the queue in front of which
+	 * 	the watchdog was pushed
+	 */
+	public void stop() {
+		if(stopped) return;
+		stopped = true;
+		sampler.interrupt();
+		queue.pop();
+	}
+
+	/**
+	 * Samples the EDT's stack while an event has run over the threshold,
+	 * 	until stopped
+	 */
+	private void sample() {
+		while(!stopped) {
+			try {
+				Thread.sleep(sampleInterval / 1000000L);
+			} catch(InterruptedException e) {
+				continue;
+			}
+
+			long busy = busySince;
+			long event = dispatching;
+			Thread thread = edt;
+			if(busy == 0 || thread == null ||
+					System.nanoTime() - busy < threshold) {
+				continue;
+			}
+
+			StackTraceElement[] stack = thread.getStackTrace();
+			// the event may have ended while the stack was taken
+			if(busySince != busy || dispatching != event) continue;
+			add(event, trim(stack));
+		}
+	}
+
+	/**
+	 * @return A stack w/o the frames from the innermost dispatch by the
+	 * 	watchdog's queue down, which are the same in every sample
+	 */
+	private static StackTraceElement[] trim(StackTraceElement[] stack) {
+		String queue = WatchQueue.class.getName();
+		for(int i = 0; i < stack.length; i++) {
+			if(stack[i].getClassName().equals(queue)) {
+				return Arrays.copyOf(stack, i);
+			}
+		}
+		return stack;
+	}
+
+	/**
+	 * Adds a sample of the EDT's stack to the counts
+	 */
+	private synchronized void add(long event, StackTraceElement[] stack) {
+		samples++;
+		if(firstStackOf != event) {
+			firstStack = stack;
+			firstStackOf = event;
+		}
+
+		Set<String> seen = new HashSet<String>();
+		for(int i = 0; i < stack.length; i++) {
+			String method = stack[i].getClassName() + "." +
+					stack[i].getMethodName();
+			long[] counts = methods.get(method);
+			if(counts == null) {
+				counts = new long[2];
+				methods.put(method, counts);
+			}
+			if(i == 0) counts[0]++;
+			if(seen.add(method)) counts[1]++;
+		}
+
+		List<StackTraceElement> key = Arrays.asList(Arrays.copyOf(
+				stack, Math.min(stack.length, MAX_FRAMES)));
+		long[] count = stacks.get(key);
+		if(count == null) {
+			if(stacks.size() >= MAX_STACKS) {
+				otherSamples++;
+				return;
+			}
+			count = new long[1];
+			stacks.put(key, count);
+		}
+		count[0]++;
+	}
+
+	/**
+	 * Counts a stall, keeping it if it's among the longest
+	 */
+	private synchronized void stalled(long event, long nanos, String name) {
+		stalls++;
+		stalledNanos += nanos;
+		Instrumentation.record(
+				Instrumentation.STALL, System.nanoTime() - nanos, 0);
+
+		StackTraceElement[] stack = firstStackOf == event ? firstStack : null;
+		if(longest.size() == MAX_STALLS &&
+				nanos <= longest.get(MAX_STALLS - 1).nanos) {
+			return;
+		}
+		Stall stall = new Stall(System.currentTimeMillis(), nanos, name, stack);
+		int i = 0;
+		while(i < longest.size() && longest.get(i).nanos >= nanos) i++;
+		longest.add(i, stall);
+		if(longest.size() > MAX_STALLS) longest.remove(MAX_STALLS);
+	}
+
+	/**
+	 * @return Number of stalls since started or reset
+	 */
+	public synchronized long getStalls() {
+		return stalls;
+	}
+
+	/**
+	 * @return Number of stack samples taken since started or reset
+	 */
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return Time an event may run before it's a stall, in ms
+	 */
+	public long getThresholdMillis() {
+		return threshold / 1000000L;
+	}
+
+	/**
+	 * Forgets every stall, sample & event time
+	 */
+	public synchronized void reset() {
+		latencies.reset();
+		methods.clear();
+		stacks.clear();
+		longest.clear();
+		firstStack = null;
+		samples = otherSamples = stalls = stalledNanos = 0;
+		since = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return A report of the event times, the longest stalls & the methods
+	 * 	& stacks most often sampled during stalls
+	 */
+	public synchronized String getReport() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("EDT report from %s to %s%n",
+				format.format(new Date(since)), format.format(new Date())));
+		report.append(String.format("threshold %d ms, sampled every %d ms%n%n",
+				getThresholdMillis(), sampleInterval / 1000000L));
+
+		report.append(String.format("events: %,d, median %.2f ms, " +
+				"p99 %.2f ms, max %.2f ms%n",
+				latencies.getCount(), latencies.getPercentile(0.5) / 1e6,
+				latencies.getPercentile(0.99) / 1e6, latencies.getMax() / 1e6));
+		report.append(String.format("stalls: %,d, %.1f s in all, " +
+				"%,d samples%n%n", stalls, stalledNanos / 1e9, samples));
+
+		report.append("Longest stalls\n");
+		for(Stall stall : longest) {
+			report.append(String.format("%10.1f ms  %s  %s%n",
+					stall.nanos / 1e6, format.format(new Date(stall.time)),
+					stall.event));
+			if(stall.stack == null) continue;
+			for(int i = 0; i < Math.min(stall.stack.length, 8); i++) {
+				report.append("\t\tat ").append(stall.stack[i]).append('\n');
+			}
+		}
+
+		report.append("\nMethods by samples anywhere in the stack " +
+				"(total, top of the stack)\n");
+		List<Map.Entry<String, long[]>> ranked =
+				new ArrayList<Map.Entry<String, long[]>>(methods.entrySet());
+		Collections.sort(ranked, new Comparator<Map.Entry<String, long[]>>() {
+			@Override
+			public int compare(
+					Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+				if(a.getValue()[1] != b.getValue()[1]) {
+					return a.getValue()[1] > b.getValue()[1] ? -1 : 1;
+				}
+				return a.getKey().compareTo(b.getKey());
+			}
+		});
+		appendMethods(report, ranked, 1);
+
+		report.append("\nMethods by samples at the top of the stack " +
+				"(total, top of the stack)\n");
+		Collections.sort(ranked, new Comparator<Map.Entry<String, long[]>>() {
+			@Override
+			public int compare(
+					Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+				if(a.getValue()[0] != b.getValue()[0]) {
+					return a.getValue()[0] > b.getValue()[0] ? -1 : 1;
+				}
+				return a.getKey().compareTo(b.getKey());
+			}
+		});
+		appendMethods(report, ranked, 0);
+
+		report.append("\nStacks by samples\n");
+		List<Map.Entry<List<StackTraceElement>, long[]>> rankedStacks =
+				new ArrayList<Map.Entry<List<StackTraceElement>, long[]>>(
+						stacks.entrySet());
+		Collections.sort(rankedStacks,
+				new Comparator<Map.Entry<List<StackTraceElement>, long[]>>() {
+			@Override
+			public int compare(
+					Map.Entry<List<StackTraceElement>, long[]> a,
+					Map.Entry<List<StackTraceElement>, long[]> b) {
+				long difference = b.getValue()[0] - a.getValue()[0];
+				return difference == 0 ? 0 : difference > 0 ? 1 : -1;
+			}
+		});
+		for(int i = 0; i < Math.min(REPORT_LINES, rankedStacks.size()); i++) {
+			long count = rankedStacks.get(i).getValue()[0];
+			report.append(String.format("%,8d samples  %5.1f%%%n",
+					count, 100.0 * count / samples));
+			for(StackTraceElement frame : rankedStacks.get(i).getKey()) {
+				report.append("\t\tat ").append(frame).append('\n');
+			}
+		}
+		if(otherSamples > 0) {
+			report.append(String.format("%,8d samples in other stacks%n",
+					otherSamples));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Appends the first of the ranked methods w/ their sample counts
+	 * @param column Count the methods are ranked by, for the percentage
+	 */
+	private void appendMethods(StringBuilder report,
+			List<Map.Entry<String, long[]>> ranked, int column) {
+		for(int i = 0; i < Math.min(REPORT_LINES, ranked.size()); i++) {
+			long[] counts = ranked.get(i).getValue();
+			if(counts[column] == 0) break;
+			report.append(String.format("%,8d %,8d  %5.1f%%  %s%n",
+					counts[1], counts[0], 100.0 * counts[column] / samples,
+					ranked.get(i).getKey()));
+		}
+	}
+
+	/**
+	 * Writes the report to a file
+	 * @param file File to write, replaced if it exists
+	 * @throws IOException If the file can't be written
+	 */
+	public void writeReport(File file) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(getReport());
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("EdtWatchdog: %,d events, %,d stalls over %d ms, " +
+				"%,d samples", latencies.getCount(), stalls,
+				getThresholdMillis(), samples);
+	}
+
+	/**
+	 * @return Short name of an event, its kind & where it came from
+	 */
+	private static String describe(AWTEvent event) {
+		String param = event.paramString();
+		int comma = param.indexOf(',');
+		if(comma >= 0) param = param.substring(0, comma);
+		String source = event.getSource() == null ?
+				"null" : event.getSource().getClass().getName();
+		return event.getClass().getSimpleName() + "[" + param + "] on " + source;
+	}
+
+	/**
+	 * Times each event dispatched, & the waits for events inside nested
+	 * 	event loops
+	 */
+	private class WatchQueue extends EventQueue {
+
+		@Override
+		protected void dispatchEvent(AWTEvent event) {
+			if(edt == null) edt = Thread.currentThread();
+			if(depth == began.length) {
+				numbers = Arrays.copyOf(numbers, depth * 2);
+				began = Arrays.copyOf(began, depth * 2);
+				excluded = Arrays.copyOf(excluded, depth * 2);
+			}
+			long start = System.nanoTime();
+			long number = ++dispatched;
+			numbers[depth] = number;
+			began[depth] = start;
+			excluded[depth] = 0;
+			depth++;
+			dispatching = number;
+			busySince = start;
+			try {
+				super.dispatchEvent(event);
+			} finally {
+				long end = System.nanoTime();
+				depth--;
+				long elapsed = end - began[depth];
+				long nanos = elapsed - excluded[depth];
+				if(depth > 0) {
+					excluded[depth - 1] += elapsed;
+					busySince = began[depth - 1] + excluded[depth - 1];
+					dispatching = numbers[depth - 1];
+				} else {
+					busySince = 0;
+				}
+
+				latencies.record(nanos);
+				if(nanos >= threshold) stalled(number, nanos, describe(event));
+			}
+		}
+
+		@Override
+		public AWTEvent getNextEvent() throws InterruptedException {
+			if(depth == 0 || Thread.currentThread() != edt) {
+				return super.getNextEvent();
+			}
+			long start = System.nanoTime();
+			busySince = 0;
+			try {
+				return super.getNextEvent();
+			} finally {
+				excluded[depth - 1] += System.nanoTime() - start;
+				busySince = began[depth - 1] + excluded[depth - 1];
+			}
+		}
+
+		@Override
+		protected void pop() {
+			super.pop();
+		}
+	}
+
+	/**
+	 * An event which ran over the threshold
+	 */
+	private static class Stall {
+		final long time;
+		final long nanos;
+		final String event;
+		final StackTraceElement[] stack;
+
+		Stall(long time, long nanos, String event, StackTraceElement[] stack) {
+			this.time = time;
+			this.nanos = nanos;
+			this.event = event;
+			this.stack = stack;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.dbs.gps.perf;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Times & counts the plotter's stages, from loading through to painting the
+ * chart. Each stage keeps a LatencyHistogram of its run times & the rows it
+ * processed; alongside are the bytes of RaDec files read & an estimate of the
+ * plotted data's memory. Stages call record w/ the nanoTime they began at,
+ * which costs a nanoTime & an uncontended lock, so is left on everywhere.
+ *
+ * <p>The figures are published over JMX as a PerformanceMXBean once register
+ * is called.</p>
+ *
+ * @author Derek Springer
+ */
+public final class Instrumentation implements PerformanceMXBean {
+
+	/**
+	 * Name the MBean is registered under
+	 */
+	public static final String OBJECT_NAME = "com.dbs.gps:type=Performance";
+
+	/**
+	 * Stage names
+	 */
+	public static final String LOAD = "load";
+	public static final String FILTER_BY_RANGE = "filterByRange";
+	public static final String FILTER_BY_ID = "filterById";
+	public static final String GROUP_BY_ID = "groupByID";
+	public static final String DATASET = "dataset";
+	public static final String DECIMATE = "decimate";
+	public static final String CHART = "chart";
+	public static final String PAINT = "paint";
+	public static final String STALL = "stall";
+
+	private static final Instrumentation INSTANCE = new Instrumentation();
+
+	/**
+	 * Stages by name, in the order first run
+	 */
+	private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong datasetBytes = new AtomicLong();
+
+	private boolean registered = false;
+
+	private Instrumentation() {}
+
+	/**
+	 * @return The instrumentation shared by every stage
+	 */
+	public static Instrumentation get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Records a run of a stage which began at the given time & ends now
+	 * @param stage Name of the stage
+	 * @param began System.nanoTime when the run began
+	 * @param rows Rows the run processed
+	 */
+	public static void record(String stage, long began, long rows) {
+		INSTANCE.stage(stage).record(System.nanoTime() - began, rows);
+	}
+
+	/**
+	 * @param bytes Bytes of RaDec files read, to add to the total
+	 */
+	public static void addBytesRead(long bytes) {
+		INSTANCE.bytesRead.addAndGet(bytes);
+	}
+
+	/**
+	 * @param bytes Rough bytes of heap the plotted data takes now
+	 */
+	public static void setDatasetBytes(long bytes) {
+		INSTANCE.datasetBytes.set(bytes);
+	}
+
+	/**
+	 * Registers the instrumentation w/ the platform MBean server, if not
+	 * 	already registered
+	 */
+	public static synchronized void register() {
+		if(INSTANCE.registered) return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+			INSTANCE.registered = true;
+		} catch(JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private synchronized Stage stage(String name) {
+		Stage stage = stages.get(name);
+		if(stage == null) {
+			stage = new Stage(name);
+			stages.put(name, stage);
+		}
+		return stage;
+	}
+
+	@Override
+	public List<StageStatistics> getStages() {
+		List<Stage> all;
+		synchronized(this) {
+			all = new ArrayList<Stage>(stages.values());
+		}
+		List<StageStatistics> statistics = new ArrayList<StageStatistics>();
+		for(Stage stage : all) {
+			statistics.add(stage.getStatistics());
+		}
+		return statistics;
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	@Override
+	public long getDatasetBytes() {
+		return datasetBytes.get();
+	}
+
+	@Override
+	public synchronized void reset() {
+		for(Stage stage : stages.values()) {
+			stage.reset();
+		}
+		bytesRead.set(0);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder(String.format(
+				"Instrumentation: %.1f MB read, %.1f MB plotted",
+				getBytesRead() / (1024.0 * 1024.0),
+				getDatasetBytes() / (1024.0 * 1024.0)));
+		for(StageStatistics stage : getStages()) {
+			text.append("\n\t").append(stage);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * A stage's run times & rows
+	 */
+	private static final class Stage {
+		private final String name;
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		private final AtomicLong rows = new AtomicLong();
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos, long rows) {
+			histogram.record(nanos);
+			this.rows.addAndGet(rows);
+		}
+
+		void reset() {
+			histogram.reset();
+			rows.set(0);
+		}
+
+		StageStatistics getStatistics() {
+			long count = histogram.getCount();
+			return new StageStatistics(
+					name,
+					count,
+					rows.get(),
+					histogram.getLast() / 1e6,
+					count == 0 ? 0 : histogram.getTotal() / 1e6 / count,
+					histogram.getPercentile(0.5) / 1e6,
+					histogram.getPercentile(0.9) / 1e6,
+					histogram.getPercentile(0.99) / 1e6,
+					histogram.getMax() / 1e6);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.dbs.gps.perf;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in nanoseconds, w/ buckets growing in size w/ the
+ * latency so any latency from a nanosecond to centuries is kept to within an
+ * eighth of its value in a fixed 4 KB. Each power of two is split into 8
+ * equal buckets; percentiles are read back as the top of the bucket they
+ * fall in, so they are never understated.
+ *
+ * @author Derek Springer
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Buckets per power of two, as bits
+	 */
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final long[] counts = new long[64 * SUB_BUCKETS];
+
+	private long count = 0;
+	private long total = 0;
+	private long max = 0;
+	private long last = 0;
+
+	/**
+	 * Adds a latency to the histogram
+	 * @param nanos Latency in nanoseconds, negatives count as 0
+	 */
+	public synchronized void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		counts[bucketOf(nanos)]++;
+		count++;
+		total += nanos;
+		max = Math.max(max, nanos);
+		last = nanos;
+	}
+
+	/**
+	 * @return Bucket of a latency: the first SUB_BUCKETS values each have
+	 * 	their own, after which each power of two is split SUB_BUCKETS ways
+	 */
+	private static int bucketOf(long nanos) {
+		if(nanos < SUB_BUCKETS) return (int)nanos;
+		int power = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int)(nanos >>> (power - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (power - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return Greatest latency which falls in a bucket
+	 */
+	private static long topOf(int bucket) {
+		if(bucket < SUB_BUCKETS) return bucket;
+		int power = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long bottom = (SUB_BUCKETS + sub) << (power - SUB_BITS);
+		return bottom + (1L << (power - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * @param fraction Fraction of the latencies, from 0 to 1
+	 * @return Latency the given fraction of latencies are at or under, to
+	 * 	within an eighth, or 0 if none are recorded
+	 */
+	public synchronized long getPercentile(double fraction) {
+		if(count == 0) return 0;
+		long wanted = Math.max(1, (long)Math.ceil(fraction * count));
+		long seen = 0;
+		for(int bucket = 0; bucket < counts.length; bucket++) {
+			seen += counts[bucket];
+			if(seen >= wanted) return Math.min(max, topOf(bucket));
+		}
+		return max;
+	}
+
+	/**
+	 * @return Number of latencies recorded
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Sum of the latencies recorded, in nanoseconds
+	 */
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return Greatest latency recorded, in nanoseconds
+	 */
+	public synchronized long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return Latest latency recorded, in nanoseconds
+	 */
+	public synchronized long getLast() {
+		return last;
+	}
+
+	/**
+	 * Forgets every latency recorded
+	 */
+	public synchronized void reset() {
+		Arrays.fill(counts, 0);
+		count = total = max = last = 0;
+	}
+}
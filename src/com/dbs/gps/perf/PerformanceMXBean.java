@@ -0,0 +1,128 @@
+package com.dbs.gps.perf;
+
+import java.beans.ConstructorProperties;
+import java.util.List;
+
+/**
+ * Timings & counts of the plotter's stages, as published over JMX under
+ * Instrumentation.OBJECT_NAME
+ *
+ * @author Derek Springer
+ */
+public interface PerformanceMXBean {
+
+	/**
+	 * @return Statistics of each stage run so far, in the order first run
+	 */
+	List<StageStatistics> getStages();
+
+	/**
+	 * @return Bytes of RaDec files read
+	 */
+	long getBytesRead();
+
+	/**
+	 * @return Rough bytes of heap the plotted table & its indexes take
+	 */
+	long getDatasetBytes();
+
+	/**
+	 * Forgets every timing & count
+	 */
+	void reset();
+
+	/**
+	 * Statistics of a stage at one moment, w/ times in ms
+	 */
+	public static class StageStatistics {
+		private final String name;
+		private final long count;
+		private final long rows;
+		private final double lastMillis;
+		private final double meanMillis;
+		private final double medianMillis;
+		private final double p90Millis;
+		private final double p99Millis;
+		private final double maxMillis;
+
+		/**
+		 * @param name Name of the stage
+		 * @param count Number of times the stage ran
+		 * @param rows Rows the stage processed in all
+		 * @param lastMillis Time of the latest run
+		 * @param meanMillis Mean time of a run
+		 * @param medianMillis Median time of a run
+		 * @param p90Millis 90th percentile time of a run
+		 * @param p99Millis 99th percentile time of a run
+		 * @param maxMillis Longest time of a run
+		 */
+		@ConstructorProperties({ "name", "count", "rows", "lastMillis",
+				"meanMillis", "medianMillis", "p90Millis", "p99Millis",
+				"maxMillis" })
+		public StageStatistics(
+				String name,
+				long count,
+				long rows,
+				double lastMillis,
+				double meanMillis,
+				double medianMillis,
+				double p90Millis,
+				double p99Millis,
+				double maxMillis) {
+
+			this.name = name;
+			this.count = count;
+			this.rows = rows;
+			this.lastMillis = lastMillis;
+			this.meanMillis = meanMillis;
+			this.medianMillis = medianMillis;
+			this.p90Millis = p90Millis;
+			this.p99Millis = p99Millis;
+			this.maxMillis = maxMillis;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public double getLastMillis() {
+			return lastMillis;
+		}
+
+		public double getMeanMillis() {
+			return meanMillis;
+		}
+
+		public double getMedianMillis() {
+			return medianMillis;
+		}
+
+		public double getP90Millis() {
+			return p90Millis;
+		}
+
+		public double getP99Millis() {
+			return p99Millis;
+		}
+
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d runs, %,d rows, last %.2f ms, " +
+					"median %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+					name, count, rows, lastMillis, medianMillis, p90Millis,
+					p99Millis, maxMillis);
+		}
+	}
+}